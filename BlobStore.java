@@ -0,0 +1,427 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** A content-addressed store of file versions (blobs). Each blob is
+ * saved once under its SHA-1 id in the blobs folder, and commits
+ * refer to blobs by that id only, so identical contents are shared
+ * by every commit that tracks them. Blobs may later be moved into
+ * delta-compressed packs by repack; lookups check loose blobs first
+ * and then the packs. Files of at least LARGE_FILE bytes are split by
+ * a Chunker: each chunk is stored as a blob of its own, and the file's
+ * id names a manifest listing its chunks, so versions of a large file
+ * share every chunk an edit did not touch.
+ * @author Jonny W. */
+public class BlobStore {
+
+    /** Smallest size of a file stored in chunks. */
+    public static final long LARGE_FILE = 1 << 20;
+
+    /** Kind byte of an encoded manifest, as for Codec. */
+    static final byte MANIFEST = 'K';
+
+    /** Size of the buffer files are streamed through. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** A blob store keeping its loose blobs in the directory
+     * BLOBFOLDER, its packs in PACKFOLDER and the manifests of chunked
+     * files in MANIFESTFOLDER. */
+    public BlobStore(File blobFolder, File packFolder, File manifestFolder) {
+        folder = blobFolder;
+        packDir = packFolder;
+        manifestDir = manifestFolder;
+    }
+
+    /** Return the blob id of CONTENTS without storing it. */
+    public static String hash(byte[] contents) {
+        return Utils.sha1(contents);
+    }
+
+    /** Return the blob id of the contents of the file FILE without
+     * storing it. The file is streamed, not read into memory. */
+    public static String hash(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+            return ObjectId.hex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+    }
+
+    /** Store CONTENTS, if not already present, and return its id. */
+    public String put(byte[] contents) {
+        String id = hash(contents);
+        if (!contains(id)) {
+            Utils.writeContents(new File(folder, id), contents);
+        }
+        return id;
+    }
+
+    /** Store the chunk CONTENTS, if not already present, and return its
+     * id. Chunks are written through a temporary file, since several
+     * files being stored at once may share one. */
+    private String putChunk(byte[] contents) throws IOException {
+        String id = hash(contents);
+        if (!contains(id)) {
+            Path temp = Files.createTempFile(folder.toPath(), id, ".tmp");
+            try {
+                Files.write(temp, contents);
+                install(temp, new File(folder, id));
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return id;
+    }
+
+    /** Rename the finished temporary file TEMP to TARGET. Every
+     * writer of TARGET gets a temporary file of its own, so files with
+     * the same contents can be stored at once; if the rename fails
+     * because another writer put TARGET in place first, which holds
+     * the same contents, the store already has it. */
+    private static void install(Path temp, File target) throws IOException {
+        try {
+            Files.move(temp, target.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            if (!target.isFile()) {
+                throw excp;
+            }
+        }
+    }
+
+    /** Store the string CONTENTS and return its id. */
+    public String put(String contents) {
+        return put(contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Store the current contents of the file FILE and return its id. */
+    public String put(File file) {
+        return put(Utils.readContents(file));
+    }
+
+    /** Store the file FILE, whose contents have the blob id ID, if
+     * not already present. The file is copied into a temporary file of
+     * its own that is then renamed, so that a blob is never seen half
+     * written, even while the same contents are stored by another
+     * thread. A file of at least LARGE_FILE bytes is streamed through
+     * a Chunker instead, writing only the chunks not already present
+     * and then its manifest. */
+    public void put(File file, String id) {
+        if (contains(id)) {
+            return;
+        }
+        if (file.length() >= LARGE_FILE) {
+            putChunked(file, id);
+            return;
+        }
+        try {
+            Path temp = Files.createTempFile(folder.toPath(), id, ".tmp");
+            try {
+                Files.copy(file.toPath(), temp,
+                           StandardCopyOption.REPLACE_EXISTING);
+                install(temp, new File(folder, id));
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Store the file FILE, whose contents have the blob id ID, as
+     * chunks and a manifest listing them. */
+    private void putChunked(File file, String id) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = new FileInputStream(file);
+             DataOutputStream out = new DataOutputStream(bytes)) {
+            Chunker chunker = new Chunker(in);
+            ArrayList<String> chunks = new ArrayList<String>();
+            for (byte[] c = chunker.next(); c != null; c = chunker.next()) {
+                chunks.add(putChunk(c));
+            }
+            Codec.writeHeader(out, MANIFEST);
+            Codec.writeVarInt(out, chunks.size());
+            for (String chunk : chunks) {
+                Codec.writeString(out, chunk);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        manifestDir.mkdirs();
+        try {
+            Path temp = Files.createTempFile(manifestDir.toPath(), id,
+                                             ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                install(temp, new File(manifestDir, id));
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Return true iff the blob ID is stored in chunks. */
+    public boolean isChunked(String id) {
+        return id != null && new File(manifestDir, id).isFile();
+    }
+
+    /** Return the ids of the chunks of the blob ID, in order, or null
+     * if it is not stored in chunks. */
+    public List<String> chunks(String id) {
+        File manifest = new File(manifestDir, id);
+        if (!manifest.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(manifest)))) {
+            Codec.readHeader(in, MANIFEST);
+            int count = Codec.readVarInt(in);
+            ArrayList<String> result = new ArrayList<String>(count);
+            for (int i = 0; i < count; i += 1) {
+                result.add(Codec.readString(in));
+            }
+            return result;
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt manifest %s.", id);
+        }
+    }
+
+    /** Return the file holding the blob ID if it is stored loose, or
+     * null if it is not. */
+    public File looseFile(String id) {
+        File file = new File(folder, id);
+        return file.isFile() ? file : null;
+    }
+
+    /** Return true iff the blob ID is in this store. */
+    public boolean contains(String id) {
+        if (id == null) {
+            return false;
+        }
+        if (new File(folder, id).isFile() || isChunked(id)) {
+            return true;
+        }
+        for (Pack p : getPacks()) {
+            if (p.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the contents of the blob ID. */
+    public byte[] get(String id) {
+        File inFile = new File(folder, id);
+        if (inFile.isFile()) {
+            return Utils.readContents(inFile);
+        }
+        List<String> chunks = chunks(id);
+        if (chunks != null) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            for (String chunk : chunks) {
+                result.writeBytes(get(chunk));
+            }
+            return result.toByteArray();
+        }
+        for (Pack p : getPacks()) {
+            byte[] contents = p.get(id);
+            if (contents != null) {
+                return contents;
+            }
+        }
+        throw Utils.error("Missing blob %s.", id);
+    }
+
+    /** Write the contents of the blob ID to OUT. A loose blob is
+     * transferred straight from its file without being read into
+     * memory, and a chunked one a chunk at a time. */
+    public void copyTo(String id, FileChannel out) throws IOException {
+        List<String> chunks = chunks(id);
+        if (chunks != null) {
+            for (String chunk : chunks) {
+                copyTo(chunk, out);
+            }
+            return;
+        }
+        File inFile = new File(folder, id);
+        if (inFile.isFile()) {
+            try (FileChannel in = FileChannel.open(inFile.toPath())) {
+                long size = in.size();
+                for (long pos = 0; pos < size; ) {
+                    pos += in.transferTo(pos, size - pos, out);
+                }
+            }
+            return;
+        }
+        ByteBuffer contents = ByteBuffer.wrap(get(id));
+        while (contents.hasRemaining()) {
+            out.write(contents);
+        }
+    }
+
+    /** Return the contents of the blob ID as a String. Returns the
+     * empty string if ID is null. */
+    public String getAsString(String id) {
+        if (id == null) {
+            return "";
+        }
+        return new String(get(id), StandardCharsets.UTF_8);
+    }
+
+    /** Delete the loose blobs and manifests not in LIVE that were last
+     * written before the time CUTOFF, in milliseconds, stopping after
+     * LIMIT files. Blobs already in packs are left to repack. Return
+     * the number of files deleted. */
+    public int sweep(Set<String> live, long cutoff, int limit) {
+        int deleted = sweep(folder, live, cutoff, limit);
+        return deleted + sweep(manifestDir, live, cutoff, limit - deleted);
+    }
+
+    /** Delete the files of DIR as for sweep(LIVE, CUTOFF, LIMIT) and
+     * return how many were deleted. */
+    private static int sweep(File dir, Set<String> live, long cutoff,
+                             int limit) {
+        int deleted = 0;
+        if (!dir.isDirectory() || limit <= 0) {
+            return deleted;
+        }
+        try (DirectoryStream<Path> files =
+                 Files.newDirectoryStream(dir.toPath())) {
+            for (Path p : files) {
+                File f = p.toFile();
+                if (!live.contains(f.getName())
+                    && f.lastModified() < cutoff && f.delete()) {
+                    deleted += 1;
+                    if (deleted == limit) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot list %s.", dir.getName());
+        }
+        return deleted;
+    }
+
+    /** Return the directory holding the blobs. */
+    public File getFolder() {
+        return folder;
+    }
+
+    /** Move every blob, loose or already packed, into one new pack
+     * and delete the old copies. Each of GROUPS lists the ids of
+     * versions of the same file, which are delta-compressed against
+     * each other; blobs in no group are packed on their own. Chunked
+     * blobs keep their manifests, and their chunks are packed on their
+     * own. Files of the blobs folder not named by an id, such as the
+     * temporary files of an interrupted put, are left alone. */
+    public void repack(Collection<? extends Collection<String>> groups) {
+        packDir.mkdirs();
+        ArrayList<Collection<String>> all =
+            new ArrayList<Collection<String>>();
+        HashSet<String> grouped = new HashSet<String>();
+        for (Collection<String> group : groups) {
+            ArrayList<String> present = new ArrayList<String>();
+            for (String id : group) {
+                if (contains(id) && !isChunked(id)) {
+                    present.add(id);
+                    grouped.add(id);
+                }
+            }
+            all.add(present);
+        }
+        ArrayList<String> rest = new ArrayList<String>();
+        String[] loose = folder.list();
+        if (loose != null) {
+            for (String id : loose) {
+                if (ObjectId.parse(id) != null && !grouped.contains(id)) {
+                    rest.add(id);
+                }
+            }
+        }
+        for (Pack p : getPacks()) {
+            for (String id : p.ids()) {
+                if (!grouped.contains(id)) {
+                    rest.add(id);
+                }
+            }
+        }
+        for (String id : rest) {
+            all.add(List.of(id));
+        }
+        ArrayList<Pack> old = getPacks();
+        Pack fresh = Pack.write(packDir, all, this::get);
+        for (Pack p : old) {
+            if (!p.getFile().equals(fresh.getFile())) {
+                p.getFile().delete();
+                Pack.indexFile(p.getFile()).delete();
+            }
+        }
+        for (String id : fresh.ids()) {
+            new File(folder, id).delete();
+        }
+        packs = new ArrayList<Pack>();
+        packs.add(fresh);
+    }
+
+    /** Return the packs of this store, reading their indices the
+     * first time they are needed. */
+    private synchronized ArrayList<Pack> getPacks() {
+        if (packs == null) {
+            packs = new ArrayList<Pack>();
+            File[] packFiles = packDir.listFiles();
+            if (packFiles != null) {
+                for (File f : packFiles) {
+                    if (f.getName().endsWith(".pack")) {
+                        packs.add(new Pack(f));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** The directory holding the loose blobs. */
+    private final File folder;
+
+    /** The directory holding the packs. */
+    private final File packDir;
+
+    /** The directory holding the manifests of chunked blobs. */
+    private final File manifestDir;
+
+    /** The packs of this store, or null if not read yet. */
+    private ArrayList<Pack> packs;
+}
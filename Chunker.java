@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/** Splits a stream into content-defined chunks with the FastCDC
+ * rolling hash. A chunk ends where the gear hash of the bytes before
+ * it matches a mask, so cut points depend only on nearby content: an
+ * edit to a large file changes the chunks around it and leaves the
+ * others, and their ids, as they were. Cuts are normalized: a mask
+ * with more bits is used before AVG_SIZE bytes and one with fewer
+ * after it, which keeps chunk sizes close to AVG_SIZE. Chunks are
+ * never shorter than MIN_SIZE, except the last, nor longer than
+ * MAX_SIZE.
+ * @author Jonny W. */
+class Chunker {
+
+    /** Smallest size of a chunk other than the last. */
+    static final int MIN_SIZE = 16 << 10;
+
+    /** Size around which chunk sizes are normalized. */
+    static final int AVG_SIZE = 64 << 10;
+
+    /** Largest size of a chunk. */
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Mask of the hash bits that must be 0 for a cut before
+     * AVG_SIZE: two bits more than log2(AVG_SIZE). */
+    private static final long MASK_SMALL = mask(18);
+
+    /** Mask of the hash bits that must be 0 for a cut after
+     * AVG_SIZE: two bits fewer than log2(AVG_SIZE). */
+    private static final long MASK_LARGE = mask(14);
+
+    /** A random value for each byte, added into the hash as the byte
+     * is shifted in. The seed is fixed, since chunks must be cut at
+     * the same places by every gitlet. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** A chunker reading IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Return the next chunk of the stream, or null at its end. */
+    byte[] next() throws IOException {
+        while (!eof && length < MAX_SIZE) {
+            int n = in.read(buffer, length, MAX_SIZE - length);
+            if (n < 0) {
+                eof = true;
+            } else {
+                length += n;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        int end = cut(buffer, length);
+        byte[] result = Arrays.copyOf(buffer, end);
+        System.arraycopy(buffer, end, buffer, 0, length - end);
+        length -= end;
+        return result;
+    }
+
+    /** Return the length of the chunk at the start of the first LENGTH
+     * bytes of DATA. */
+    static int cut(byte[] data, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int end = Math.min(length, MAX_SIZE);
+        int normal = Math.min(end, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /** Return a mask of BITS bits spread over the high 48 bits of a
+     * long, where the gear hash has seen most bytes. */
+    private static long mask(int bits) {
+        long result = 0;
+        for (int i = 0; i < bits; i += 1) {
+            result |= 1L << (63 - i * 48 / bits);
+        }
+        return result;
+    }
+
+    /** The stream being chunked. */
+    private final InputStream in;
+
+    /** Bytes read but not returned yet. */
+    private final byte[] buffer = new byte[MAX_SIZE];
+
+    /** Number of bytes in BUFFER. */
+    private int length;
+
+    /** True once IN is exhausted. */
+    private boolean eof;
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** The binary encoding of everything gitlet keeps in .gitlet: commits,
+ *  the branch table and the working state. Each file starts with a
+ *  four-byte magic number naming its kind and a format version, and
+ *  strings are written as UTF-8 bytes prefixed with their length.
+ *  Files written by older versions of gitlet with Java serialization
+ *  are still readable and are rewritten in this format when saved.
+ *  @author Jonny W. */
+class Codec {
+
+    /** Current version of the format. Version 2 added the root tree
+     *  of commits. */
+    static final int VERSION = 2;
+
+    /** Kind byte of an encoded commit. */
+    static final byte COMMIT = 'C';
+
+    /** Kind byte of an encoded String-to-String map. */
+    static final byte MAP = 'M';
+
+    /** Kind byte of an encoded single String. */
+    static final byte STRING = 'S';
+
+    /** Magic number of every encoded file, before adding its kind. */
+    private static final int MAGIC = 0x474c5400;
+
+    /** First two bytes of a Java serialization stream. */
+    private static final int LEGACY_MAGIC = 0xaced;
+
+    /** Return the encoding of commit C. */
+    static byte[] encodeCommit(Commit c) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, COMMIT);
+            c.encode(out);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the commit encoded in DATA. */
+    static Commit decodeCommit(byte[] data) {
+        if (isLegacy(data)) {
+            return (Commit) readLegacy(data);
+        }
+        try (DataInputStream in = open(data)) {
+            return Commit.decode(in, readHeader(in, COMMIT));
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt commit.");
+        }
+    }
+
+    /** Return the encoding of the map MAP. */
+    static byte[] encodeMap(Map<String, String> map) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, MAP);
+            writeMap(out, map);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding map.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the map encoded in DATA. */
+    @SuppressWarnings("unchecked")
+    static HashMap<String, String> decodeMap(byte[] data) {
+        if (isLegacy(data)) {
+            return (HashMap<String, String>) readLegacy(data);
+        }
+        try (DataInputStream in = open(data)) {
+            readHeader(in, MAP);
+            return readMap(in);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt map.");
+        }
+    }
+
+    /** Return the encoding of the string STR. */
+    static byte[] encodeString(String str) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, STRING);
+            writeString(out, str);
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding string.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the string encoded in DATA. */
+    static String decodeString(byte[] data) {
+        if (isLegacy(data)) {
+            return (String) readLegacy(data);
+        }
+        try (DataInputStream in = open(data)) {
+            readHeader(in, STRING);
+            return readString(in);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt string.");
+        }
+    }
+
+    /** Return true iff DATA was written with Java serialization by an
+     *  older version of gitlet. */
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2
+            && ((data[0] & 0xff) << 8 | (data[1] & 0xff)) == LEGACY_MAGIC;
+    }
+
+    /** Return the object Java-serialized in DATA. */
+    private static Serializable readLegacy(byte[] data) {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(data))) {
+            return (Serializable) in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw Utils.error("Corrupt legacy object.");
+        }
+    }
+
+    /** Return a stream reading DATA. */
+    private static DataInputStream open(byte[] data) {
+        return new DataInputStream(new ByteArrayInputStream(data));
+    }
+
+    /** Write the header of a file of kind KIND to OUT. */
+    static void writeHeader(DataOutputStream out, byte kind)
+        throws IOException {
+        out.writeInt(MAGIC | kind);
+        out.writeByte(VERSION);
+    }
+
+    /** Read the header of a file of kind KIND from IN and return its
+     *  format version. */
+    static int readHeader(DataInputStream in, byte kind) throws IOException {
+        if (in.readInt() != (MAGIC | kind)) {
+            throw Utils.error("Not an encoded %c file.", (char) kind);
+        }
+        int version = in.readUnsignedByte();
+        if (version > VERSION) {
+            throw Utils.error("Unsupported format version %d.", version);
+        }
+        return version;
+    }
+
+    /** Write the non-negative integer N to OUT using 7 bits per byte. */
+    static void writeVarInt(DataOutputStream out, int n) throws IOException {
+        while ((n & ~0x7f) != 0) {
+            out.writeByte((n & 0x7f) | 0x80);
+            n >>>= 7;
+        }
+        out.writeByte(n);
+    }
+
+    /** Read an integer written by writeVarInt from IN. */
+    static int readVarInt(DataInputStream in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw Utils.error("Corrupt length.");
+    }
+
+    /** Write STR, which may be null, to OUT as its UTF-8 bytes prefixed
+     *  by their length plus one. A length of 0 stands for null. */
+    static void writeString(DataOutputStream out, String str)
+        throws IOException {
+        if (str == null) {
+            writeVarInt(out, 0);
+        } else {
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length + 1);
+            out.write(bytes);
+        }
+    }
+
+    /** Read a string written by writeString from IN. */
+    static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write MAP, which may be null, to OUT as its size plus one
+     *  followed by its keys and values. */
+    static void writeMap(DataOutputStream out, Map<String, String> map)
+        throws IOException {
+        if (map == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, map.size() + 1);
+        for (Map.Entry<String, String> each : map.entrySet()) {
+            writeString(out, each.getKey());
+            writeString(out, each.getValue());
+        }
+    }
+
+    /** Read a map written by writeMap from IN. */
+    static HashMap<String, String> readMap(DataInputStream in)
+        throws IOException {
+        int size = readVarInt(in);
+        if (size == 0) {
+            return null;
+        }
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (int i = 1; i < size; i += 1) {
+            result.put(readString(in), readString(in));
+        }
+        return result;
+    }
+}
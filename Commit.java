@@ -1,28 +1,45 @@
 package gitlet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.ObjectOutputStream;
-import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /** The essential structure of gitlet commmits. Each commit acts
- * like a node, and all together is a tree of commits. Serializable
- * means each commit will be saved as a file and be accessed later.
- * These files are saved in GITLET_FOLDER in the main class of
- * package gitlet.
+ * like a node, and all together is a tree of commits. Each commit
+ * is saved as a file in the binary format of Codec and accessed
+ * later. These files are saved in GITLET_FOLDER in the main class
+ * of package gitlet. Commits remain Serializable so that files of
+ * older repositories can still be read.
  * @author Jonny W. */
 public class Commit implements Serializable {
 
+    /** Serialization id of the commits written by older versions of
+     * gitlet, which kept file contents instead of blob ids. */
+    private static final long serialVersionUID = -8323201363950158626L;
+
     /** A HashMap of files present in the current commit, in the
-     * format Hashmap<name, contents (read the file using reader)>.
-     * These files are already committed (should not be changing
-     * when current commit files are changing). */
+     * format Hashmap<name, blob id>. The contents themselves live
+     * in the blob store. These files are already committed (should
+     * not be changing when current commit files are changing). */
     private HashMap<String, String> files;
 
+    /** The id of the root tree of FILES, or null for commits written
+     * before trees existed. A commit read back from its file only
+     * reads FILES from the tree when they are first needed. */
+    private String tree;
+
+    /** The blob store the trees are read from, set when the commit is
+     * read back. */
+    private transient BlobStore store;
+
     /** A Hashmap of files that will change when files in current
      * commits are changing. */
     private HashMap<String, String> newFiles;
@@ -46,7 +63,7 @@ public class Commit implements Serializable {
     private String prev2;
 
     /** A HashMap accounting files that are staged. Same format
-     * as FILES. */
+     * as FILES (name to blob id). */
     private HashMap<String, String> staged;
 
     /** A HashMap containing untracked files. */
@@ -78,8 +95,8 @@ public class Commit implements Serializable {
         prev2 = prevCommit;
     }
 
-    /** Set the commit ID ID to the current commit. For each
-     * commit, the ID must be set right after initialization. */
+    /** Set the commit ID ID to the current commit. For each new
+     * commit, the ID is its canonicalId, set once its tree is. */
     public void setCommitId(String id) {
         commitId = id;
     }
@@ -105,32 +122,96 @@ public class Commit implements Serializable {
     /** Save current working commit in the directory COMMITFOLDER. */
     public void saveCommit(File commitFolder) throws IOException {
         File outFile = new File(commitFolder, commitId);
-        ObjectOutputStream out = new ObjectOutputStream(
-                new FileOutputStream(outFile));
-        out.writeObject(this);
-        out.close();
-    }
-    /** Add the file FILE with name NAME to the current commit.
-     * Files are stored as strings. */
-    public void addFiles(File file, String name) {
-        String content = Utils.readContentsAsString(file);
-        if (newFiles.get(name) != null && newFiles.get(name).equals(content)) {
-            return;
+        Utils.writeContents(outFile, Codec.encodeCommit(this));
+    }
+
+    /** Convert a commit read from a repository of an older version
+     * of gitlet, whose file maps hold contents rather than blob ids,
+     * by moving the tracked contents into BLOBS. */
+    void migrate(BlobStore blobs) {
+        for (HashMap<String, String> map
+                 : List.of(files, newFiles, staged)) {
+            for (var each : map.entrySet()) {
+                if (each.getValue() != null) {
+                    each.setValue(blobs.put(each.getValue()));
+                }
+            }
         }
-        newFiles.put(name, content);
-        if (!removed.containsKey(name)) {
-            staged.put(name, content);
+        for (HashMap<String, String> map
+                 : List.of(untracked, modified)) {
+            for (var each : map.entrySet()) {
+                if (each.getValue() != null) {
+                    each.setValue(BlobStore.hash(each.getValue()
+                        .getBytes(StandardCharsets.UTF_8)));
+                }
+            }
         }
     }
 
-    /** Add the file with name NAME and content CONTENT to the
-     * current commit. */
-    public void addFiles(String name, String content) {
-        if (newFiles.get(name) != null && newFiles.get(name).equals(content)) {
+    /** Write the fields of this commit to OUT, in the order read
+     * back by decode. */
+    void encode(DataOutputStream out) throws IOException {
+        Codec.writeString(out, commitId);
+        Codec.writeString(out, timeStamp);
+        Codec.writeString(out, logMessage);
+        Codec.writeString(out, prev);
+        Codec.writeString(out, prev2);
+        Codec.writeString(out, tree);
+        Codec.writeMap(out, tree == null ? files : null);
+        Codec.writeMap(out, newFiles);
+        Codec.writeMap(out, staged);
+        Codec.writeMap(out, untracked);
+        Codec.writeMap(out, modified);
+        Codec.writeMap(out, removed);
+    }
+
+    /** Return the commit read from IN, which was written by encode in
+     * format version VERSION. */
+    static Commit decode(DataInputStream in, int version)
+        throws IOException {
+        Commit c = new Commit();
+        c.commitId = Codec.readString(in);
+        c.timeStamp = Codec.readString(in);
+        c.logMessage = Codec.readString(in);
+        c.prev = Codec.readString(in);
+        c.prev2 = Codec.readString(in);
+        if (version >= 2) {
+            c.tree = Codec.readString(in);
+        }
+        c.files = Codec.readMap(in);
+        c.newFiles = Codec.readMap(in);
+        c.staged = Codec.readMap(in);
+        c.untracked = Codec.readMap(in);
+        c.modified = Codec.readMap(in);
+        c.removed = Codec.readMap(in);
+        return c;
+    }
+
+    /** Add every file named by a key of IDS, whose contents have the
+     * blob id it maps to, to the current commit in one update. The
+     * blobs must already be in the blob store. */
+    public void addAll(Map<String, String> ids) {
+        for (var each : ids.entrySet()) {
+            String name = each.getKey();
+            String id = each.getValue();
+            if (id.equals(newFiles.get(name))) {
+                continue;
+            }
+            newFiles.put(name, id);
+            if (!removed.containsKey(name)) {
+                staged.put(name, id);
+            }
+        }
+    }
+
+    /** Add the file with name NAME and blob id ID to the current
+     * commit. The blob must already be in the blob store. */
+    public void addFiles(String name, String id) {
+        if (newFiles.get(name) != null && newFiles.get(name).equals(id)) {
             return;
         }
-        newFiles.put(name, content);
-        staged.put(name, content);
+        newFiles.put(name, id);
+        staged.put(name, id);
     }
 
     /** Returns the previous commit of current commit. */
@@ -143,11 +224,41 @@ public class Commit implements Serializable {
         return prev2;
     }
 
-    /** Return the HashMap of files of current commit. */
+    /** Return the HashMap of files of current commit, reading them
+     * from its tree the first time. */
     public HashMap<String, String> getFiles() {
+        if (files == null && tree != null) {
+            files = Tree.files(tree, store);
+        }
         return files;
     }
 
+    /** Return the blob id of the file NAME in current commit, or null
+     * if it has none. Only the trees on the way to NAME are read if
+     * the files were not read yet. */
+    public String getFile(String name) {
+        if (files == null && tree != null) {
+            return Tree.find(tree, name, store);
+        }
+        return files.get(name);
+    }
+
+    /** Return the id of the root tree of current commit, or null if
+     * it has none yet. */
+    public String getTree() {
+        return tree;
+    }
+
+    /** Set the root tree of current commit to ID. */
+    public void setTree(String id) {
+        tree = id;
+    }
+
+    /** Read the trees of current commit from BLOBS. */
+    void setStore(BlobStore blobs) {
+        store = blobs;
+    }
+
     /** Return the HashMap of new files of current commit. */
     public HashMap<String, String> getNewFiles() {
         return newFiles;
@@ -158,6 +269,26 @@ public class Commit implements Serializable {
         return commitId;
     }
 
+    /** Return the id of current commit: the SHA-1 of its canonical
+     * encoding, which names its root tree, its parents, its time stamp
+     * and then its log message, one to a line, after a header giving
+     * the kind and length. No file is encoded, so hashing the id does
+     * not depend on how much is tracked, though writing the tree
+     * does. The tree must be set. */
+    public String canonicalId() {
+        StringBuilder text = new StringBuilder();
+        text.append("tree ").append(tree).append('\n');
+        for (String parent : new String[] {prev, prev2}) {
+            if (parent != null) {
+                text.append("parent ").append(parent).append('\n');
+            }
+        }
+        text.append("time ").append(timeStamp).append('\n');
+        text.append('\n').append(logMessage);
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        return Utils.sha1("commit " + body.length + "\0", body);
+    }
+
     /** Return the time stamp of current commit. */
     public String getTimeStamp() {
         return timeStamp;
@@ -180,7 +311,7 @@ public class Commit implements Serializable {
 
     /** Clear everything. */
     public void clearSetUps() {
-        newFiles = new HashMap<String, String>(files);
+        newFiles = new HashMap<String, String>(getFiles());
         staged.clear();
         modified.clear();
         removed.clear();
@@ -207,11 +338,10 @@ public class Commit implements Serializable {
         return removed;
     }
 
-    /** Add the untracked file F to untracked HashMap. This
-     * does not stage the file (not the add command). */
-    public void addUntracked(File f) {
-        String content = Utils.readContentsAsString(f);
-        untracked.put(f.getName(), content);
+    /** Add the untracked file NAME with blob id ID to untracked
+     * HashMap. This does not stage the file (not the add command). */
+    public void addUntracked(String name, String id) {
+        untracked.put(name, id);
     }
 
     /** Remove the untracked file named NAME from untracked
@@ -220,11 +350,11 @@ public class Commit implements Serializable {
         untracked.remove(name);
     }
 
-    /** Add the modified file F to modified HashMap. This
-     * does not stage the file (not the add command). */
-    public void addModified(File f) {
-        String content = Utils.readContentsAsString(f);
-        modified.put(f.getName(), content);
+    /** Add the modified file NAME, whose contents are now the blob
+     * ID, to modified HashMap. This does not stage the file (not the
+     * add command). */
+    public void addModified(String name, String id) {
+        modified.put(name, id);
     }
 
     /** Add the file name NAME to modified HashMap. This method
@@ -0,0 +1,192 @@
+package gitlet;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache of decoded commits, by id, bounded by the memory they are
+ * estimated to take rather than by their number. Commits are kept in
+ * least-recently-used order; once their estimated sizes add up to more
+ * than the capacity, the least recently used are evicted into a second
+ * tier of soft references, which the garbage collector clears only
+ * when memory runs short. A commit found in that tier is moved back
+ * into the first. Hits in either tier and misses are counted. The
+ * cache may be used from several threads at once.
+ * @author Jonny W. */
+class CommitCache {
+
+    /** Estimated number of bytes a decoded commit takes for each byte
+     * of its encoding. */
+    static final int EXPANSION = 4;
+
+    /** Estimated number of bytes a decoded commit takes besides those
+     * proportional to its encoding. */
+    static final int OVERHEAD = 256;
+
+    /** A cache holding commits estimated to take at most CAPACITY bytes
+     * in its first tier. */
+    CommitCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /** Return the estimated size of a commit whose encoding takes
+     * LENGTH bytes. */
+    static long estimate(long length) {
+        return length * EXPANSION + OVERHEAD;
+    }
+
+    /** Return the commit ID, or null if it is not cached. */
+    synchronized Commit get(String id) {
+        Entry e = entries.get(id);
+        if (e != null) {
+            hits += 1;
+            return e.commit;
+        }
+        expunge();
+        SoftEntry soft = softEntries.remove(id);
+        Commit c = soft == null ? null : soft.get();
+        if (c == null) {
+            misses += 1;
+            return null;
+        }
+        softHits += 1;
+        insert(id, c, soft.size);
+        return c;
+    }
+
+    /** Cache the commit C with id ID, whose encoding takes LENGTH
+     * bytes. */
+    synchronized void put(String id, Commit c, long length) {
+        softEntries.remove(id);
+        Entry old = entries.remove(id);
+        if (old != null) {
+            used -= old.size;
+        }
+        insert(id, c, estimate(length));
+    }
+
+    /** Drop the commit ID from the cache, as when its file changes. */
+    synchronized void remove(String id) {
+        Entry old = entries.remove(id);
+        if (old != null) {
+            used -= old.size;
+        }
+        softEntries.remove(id);
+    }
+
+    /** Drop every commit from the cache. The counters are kept. */
+    synchronized void clear() {
+        entries.clear();
+        softEntries.clear();
+        used = 0;
+    }
+
+    /** Return the number of lookups found in the first tier. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Return the number of lookups found in the soft tier. */
+    synchronized long softHits() {
+        return softHits;
+    }
+
+    /** Return the number of lookups that found nothing. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Return the estimated number of bytes taken by the first tier. */
+    synchronized long used() {
+        return used;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("commit cache: %d hits, %d soft hits, "
+                             + "%d misses, %d commits in %d bytes",
+                             hits, softHits, misses, entries.size(), used);
+    }
+
+    /** Add the commit C with id ID and estimated size SIZE to the first
+     * tier, evicting the least recently used commits into the soft
+     * tier while the tier is over capacity. */
+    private void insert(String id, Commit c, long size) {
+        entries.put(id, new Entry(c, size));
+        used += size;
+        Iterator<Map.Entry<String, Entry>> eldest =
+            entries.entrySet().iterator();
+        while (used > capacity && entries.size() > 1) {
+            Map.Entry<String, Entry> e = eldest.next();
+            used -= e.getValue().size;
+            softEntries.put(e.getKey(),
+                            new SoftEntry(e.getKey(), e.getValue(), queue));
+            eldest.remove();
+        }
+    }
+
+    /** Remove the soft entries whose commits have been collected. */
+    private void expunge() {
+        for (Object ref = queue.poll(); ref != null; ref = queue.poll()) {
+            SoftEntry e = (SoftEntry) ref;
+            if (softEntries.get(e.id) == e) {
+                softEntries.remove(e.id);
+            }
+        }
+    }
+
+    /** A commit in the first tier. */
+    private static class Entry {
+        /** The commit C, of estimated size SIZE. */
+        Entry(Commit c, long size) {
+            commit = c;
+            this.size = size;
+        }
+
+        /** The cached commit. */
+        private final Commit commit;
+        /** Its estimated size in bytes. */
+        private final long size;
+    }
+
+    /** A commit in the soft tier. */
+    private static class SoftEntry extends SoftReference<Commit> {
+        /** A soft reference to the commit of E, whose id is ID,
+         * registered with QUEUE. */
+        SoftEntry(String id, Entry e, ReferenceQueue<Commit> queue) {
+            super(e.commit, queue);
+            this.id = id;
+            size = e.size;
+        }
+
+        /** The id of the commit. */
+        private final String id;
+        /** Its estimated size in bytes. */
+        private final long size;
+    }
+
+    /** Largest estimated size of the first tier. */
+    private final long capacity;
+
+    /** Estimated size of the first tier. */
+    private long used;
+
+    /** The first tier, least recently used first. */
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** The soft tier. */
+    private final HashMap<String, SoftEntry> softEntries =
+        new HashMap<String, SoftEntry>();
+
+    /** The queue the collected soft entries are put on. */
+    private final ReferenceQueue<Commit> queue =
+        new ReferenceQueue<Commit>();
+
+    /** Numbers of lookups found in each tier and of those that found
+     * nothing. */
+    private long hits, softHits, misses;
+}
@@ -0,0 +1,471 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/** A cache of the shape of the commit history, so that history can be
+ * walked without opening any commit file. The graph file is a table of
+ * fixed-width records, one per commit, each holding the commit id,
+ * the indices of its parents in the table, its generation number (one
+ * more than the largest generation of its parents, 1 for a root), its
+ * time in seconds, the id of its root tree and the offset of its date
+ * and log message in a separate text file. Parents always come before
+ * their children, and new commits are appended. Both files are read
+ * through memory maps.
+ * @author Jonny W. */
+class CommitGraph {
+
+    /** Index standing for a missing parent. */
+    static final int NONE = -1;
+
+    /** Mark of a commit reachable from the first side of mergeBases. */
+    private static final int SIDE1 = 1;
+
+    /** Mark of a commit reachable from the second side. */
+    private static final int SIDE2 = 2;
+
+    /** Marks of a commit reachable from both sides. */
+    private static final int BOTH = SIDE1 | SIDE2;
+
+    /** Mark of a commit below a merge-base candidate. */
+    private static final int STALE = 4;
+
+    /** Magic number at the start of the graph file. */
+    private static final int MAGIC = 0x474c5447;
+
+    /** Version of the graph format. Version 2 keeps the id of the
+     * root tree of each commit as its snapshot id. */
+    private static final int VERSION = 2;
+
+    /** Size of the header of the graph file. */
+    private static final int HEADER = 8;
+
+    /** Size of a raw SHA-1 id. */
+    private static final int ID_BYTES = ObjectId.BYTES;
+
+    /** Size of one record: id, two parents, generation, time, snapshot
+     * id and text offset. */
+    private static final int RECORD = ID_BYTES + 4 + 4 + 4 + 8 + ID_BYTES + 8;
+
+    /** The graph kept in GRAPHFILE, with dates and messages in
+     * TEXTFILE. Neither has to exist yet. */
+    CommitGraph(File graphFile, File textFile) {
+        file = graphFile;
+        text = textFile;
+    }
+
+    /** Return true iff the graph file exists in the current
+     * version. A graph of an older version is deleted, so that it is
+     * built again. */
+    boolean exists() {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(file))) {
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                return true;
+            }
+        } catch (IOException excp) {
+            /* Treated as an outdated graph. */
+        }
+        file.delete();
+        text.delete();
+        return false;
+    }
+
+    /** Return the number of commits in the graph. */
+    int size() {
+        return records().limit() / RECORD + pending.size();
+    }
+
+    /** Return the index of the commit ID, or NONE if it is not in the
+     * graph. */
+    int find(String id) {
+        if (id == null) {
+            return NONE;
+        }
+        ObjectId key = ObjectId.parse(id);
+        if (key == null) {
+            return NONE;
+        }
+        if (positions == null) {
+            positions = new ObjectIdMap(size());
+            for (int k = 0; k < size(); k += 1) {
+                positions.put(record(k), 0, k);
+            }
+        }
+        long k = positions.get(key);
+        return k == ObjectIdMap.MISSING ? NONE : (int) k;
+    }
+
+    /** Return the id of commit K. */
+    String id(int k) {
+        return ObjectId.hex(record(k), 0);
+    }
+
+    /** Return the index of the first parent of commit K, or NONE. */
+    int parent1(int k) {
+        return record(k).getInt(ID_BYTES);
+    }
+
+    /** Return the index of the second parent of commit K, or NONE. */
+    int parent2(int k) {
+        return record(k).getInt(ID_BYTES + 4);
+    }
+
+    /** Return the generation number of commit K. */
+    int generation(int k) {
+        return record(k).getInt(ID_BYTES + 8);
+    }
+
+    /** Return the time of commit K in seconds since the epoch. */
+    long time(int k) {
+        return record(k).getLong(ID_BYTES + 12);
+    }
+
+    /** Return the id of the root tree of commit K. */
+    String snapshotId(int k) {
+        return ObjectId.hex(record(k), ID_BYTES + 20);
+    }
+
+    /** Return the date of commit K, as printed by log. */
+    String timeStamp(int k) {
+        return readString(textAt(textOffset(k)));
+    }
+
+    /** Return the log message of commit K. */
+    String message(int k) {
+        ByteBuffer in = textAt(textOffset(k));
+        readString(in);
+        return readString(in);
+    }
+
+    /** Return the merge bases of commits A and B: the common ancestors
+     * of both that are not ancestors of another common ancestor. There
+     * is more than one only for criss-cross histories. Both histories
+     * are walked at once, newest generation first, marking each commit
+     * with the sides it is reachable from; a commit reached from both
+     * sides is a candidate, and everything below a candidate is marked
+     * stale, so the walk stops as soon as only stale commits remain. */
+    List<Integer> mergeBases(int a, int b) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        if (a == b) {
+            result.add(a);
+            return result;
+        }
+        HashMap<Integer, Integer> marks = new HashMap<Integer, Integer>();
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+            (x, y) -> generation(y) - generation(x));
+        marks.put(a, SIDE1);
+        marks.put(b, SIDE2);
+        queue.add(a);
+        queue.add(b);
+        int live = 2;
+        while (live > 0) {
+            int k = queue.poll();
+            int flags = marks.get(k);
+            if ((flags & STALE) == 0) {
+                live -= 1;
+            }
+            if ((flags & BOTH) == BOTH && (flags & STALE) == 0) {
+                result.add(k);
+                flags |= STALE;
+            }
+            for (int p : new int[] {parent1(k), parent2(k)}) {
+                if (p == NONE) {
+                    continue;
+                }
+                int old = marks.getOrDefault(p, 0);
+                int now = old | flags;
+                if (now != old) {
+                    if (old != 0) {
+                        if ((old & STALE) == 0) {
+                            live -= 1;
+                        }
+                        queue.remove(p);
+                    }
+                    marks.put(p, now);
+                    queue.add(p);
+                    if ((now & STALE) == 0) {
+                        live += 1;
+                    }
+                }
+            }
+        }
+        ArrayList<Integer> bases = new ArrayList<Integer>();
+        for (int c : result) {
+            boolean redundant = false;
+            for (int d : result) {
+                if (c != d && isAncestor(c, d)) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(c);
+            }
+        }
+        bases.sort((x, y) -> generation(x) != generation(y)
+                   ? generation(y) - generation(x)
+                   : Long.compare(time(y), time(x)));
+        return bases;
+    }
+
+    /** Return true iff commit A is an ancestor of (or is) commit B. Only
+     * commits of a generation above A's are walked. */
+    boolean isAncestor(int a, int b) {
+        int floor = generation(a);
+        HashSet<Integer> visited = new HashSet<Integer>();
+        ArrayDeque<Integer> todo = new ArrayDeque<Integer>();
+        todo.push(b);
+        while (!todo.isEmpty()) {
+            int k = todo.pop();
+            if (k == a) {
+                return true;
+            }
+            if (!visited.add(k) || generation(k) <= floor) {
+                continue;
+            }
+            for (int p : new int[] {parent1(k), parent2(k)}) {
+                if (p != NONE) {
+                    todo.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Add commit C, whose parents must already be in the graph and
+     * whose tree must be set, and return its index. It is written out
+     * by the next flush. */
+    int add(Commit c) {
+        int k = find(c.getCommitId());
+        if (k != NONE) {
+            return k;
+        }
+        int p1 = find(c.getPrev());
+        int p2 = find(c.getPrev2());
+        if ((c.getPrev() != null && p1 == NONE)
+            || (c.getPrev2() != null && p2 == NONE)) {
+            throw Utils.error("Parent of %s missing from commit graph.",
+                              c.getCommitId());
+        }
+        int gen = 1;
+        if (p1 != NONE) {
+            gen = Math.max(gen, generation(p1) + 1);
+        }
+        if (p2 != NONE) {
+            gen = Math.max(gen, generation(p2) + 1);
+        }
+        ByteArrayOutputStream textBytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(textBytes)) {
+            Codec.writeString(out, c.getTimeStamp());
+            Codec.writeString(out, c.getLogMessage());
+        } catch (IOException excp) {
+            throw Utils.error("Internal error writing commit graph.");
+        }
+        if (pendingText.size() == 0) {
+            pendingStart = text.length();
+        }
+        long offset = pendingStart + pendingText.size();
+        pendingText.writeBytes(textBytes.toByteArray());
+        pendingMap = null;
+        ByteBuffer rec = ByteBuffer.allocate(RECORD);
+        ObjectId.fromHex(c.getCommitId()).copyRawTo(rec);
+        rec.putInt(p1);
+        rec.putInt(p2);
+        rec.putInt(gen);
+        rec.putLong(seconds(c.getTimeStamp()));
+        ObjectId.fromHex(c.getTree()).copyRawTo(rec);
+        rec.putLong(offset);
+        rec.flip();
+        k = size();
+        pending.add(rec);
+        positions.put(ObjectId.fromHex(c.getCommitId()), k);
+        return k;
+    }
+
+    /** Append the commits added since the last flush to the files. The
+     * text is written before the records that point into it, and a
+     * torn record at the end of the graph file is ignored on reading,
+     * so an interrupted flush never leaves a record without its
+     * text. */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            try (FileOutputStream out = new FileOutputStream(text, true)) {
+                pendingText.writeTo(out);
+            }
+            boolean fresh = !file.exists() || file.length() < HEADER;
+            try (FileOutputStream out = new FileOutputStream(file, !fresh)) {
+                if (fresh) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER);
+                    header.putInt(MAGIC).putInt(VERSION);
+                    out.write(header.array());
+                } else {
+                    long whole = HEADER
+                        + (file.length() - HEADER) / RECORD * RECORD;
+                    out.getChannel().truncate(whole);
+                }
+                for (ByteBuffer rec : pending) {
+                    out.write(rec.array());
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write commit graph.");
+        }
+        pending.clear();
+        pendingText.reset();
+        pendingMap = null;
+        recordMap = null;
+        textMap = null;
+    }
+
+    /** Return the time in seconds of the log date STAMP, or 0 if it
+     * cannot be read. */
+    static long seconds(String stamp) {
+        try {
+            return new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z")
+                .parse(stamp).getTime() / 1000;
+        } catch (ParseException | NullPointerException excp) {
+            return 0;
+        }
+    }
+
+    /** Return a buffer positioned at the record of commit K. */
+    private ByteBuffer record(int k) {
+        ByteBuffer recs = records();
+        int mapped = recs.limit() / RECORD;
+        if (k >= mapped) {
+            return pending.get(k - mapped);
+        }
+        return recs.slice(k * RECORD, RECORD);
+    }
+
+    /** Return the offset of the text of commit K. */
+    private long textOffset(int k) {
+        return record(k).getLong(ID_BYTES + 20 + ID_BYTES);
+    }
+
+    /** Return the records of the graph file, mapped into memory, not
+     * counting any torn record at the end. */
+    private ByteBuffer records() {
+        if (recordMap == null) {
+            ByteBuffer whole = map(file);
+            if (whole.limit() < HEADER) {
+                recordMap = ByteBuffer.allocate(0);
+            } else {
+                if (whole.getInt(0) != MAGIC || whole.getInt(4) != VERSION) {
+                    throw Utils.error("Bad commit graph.");
+                }
+                int count = (whole.limit() - HEADER) / RECORD;
+                recordMap = whole.slice(HEADER, count * RECORD);
+            }
+        }
+        return recordMap;
+    }
+
+    /** Return a buffer positioned at OFFSET in the text: in the mapped
+     * text file if it lies before the text not flushed yet, and
+     * otherwise in a copy of the text not flushed yet, made once per
+     * add rather than once per read. */
+    private ByteBuffer textAt(long offset) {
+        ByteBuffer in;
+        if (pendingText.size() > 0 && offset >= pendingStart) {
+            if (pendingMap == null) {
+                pendingMap = ByteBuffer.wrap(pendingText.toByteArray());
+            }
+            in = pendingMap.duplicate();
+            offset -= pendingStart;
+        } else {
+            if (textMap == null) {
+                textMap = map(text);
+            }
+            in = textMap.duplicate();
+        }
+        in.position((int) offset);
+        return in;
+    }
+
+    /** Return the contents of F mapped into memory, or an empty buffer
+     * if F does not exist. */
+    private static ByteBuffer map(File f) {
+        if (!f.exists()) {
+            return ByteBuffer.allocate(0);
+        }
+        try (FileChannel channel = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read %s.", f.getName());
+        }
+    }
+
+    /** Read a string written by Codec.writeString from IN. */
+    private static String readString(ByteBuffer in) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.get() & 0xff;
+            length |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** The graph file. */
+    private final File file;
+
+    /** The file of dates and log messages. */
+    private final File text;
+
+    /** Records added since the last flush. */
+    private final ArrayList<ByteBuffer> pending = new ArrayList<ByteBuffer>();
+
+    /** Text added since the last flush. */
+    private final ByteArrayOutputStream pendingText =
+        new ByteArrayOutputStream();
+
+    /** Offset in the text of the start of PENDINGTEXT. */
+    private long pendingStart;
+
+    /** The text added since the last flush, or null if not copied out
+     * since the last add. */
+    private ByteBuffer pendingMap;
+
+    /** Index of each commit id, or null if not built yet. */
+    private ObjectIdMap positions;
+
+    /** The mapped records, or null if not mapped yet. */
+    private ByteBuffer recordMap;
+
+    /** The mapped text file, or null if not mapped yet. */
+    private ByteBuffer textMap;
+}
@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/** A server that keeps one repository loaded in a single JVM and runs
+ * gitlet commands sent to it over a Unix-domain socket, and the thin
+ * client that forwards a command line to it. While a daemon is running
+ * in a directory, every gitlet command started there is forwarded to
+ * it, so that the repository is never changed behind its back.
+ *
+ * A request is the client's working directory followed by its
+ * arguments, each written as by Codec.writeString after a count of the
+ * arguments, and then the client's standard input for a batch read
+ * from it (null otherwise). The response is everything the command
+ * printed.
+ * @author Jonny W. */
+class Daemon {
+
+    /** The socket a daemon listens on, relative to the working
+     * directory. */
+    static final File SOCKET = new File("."
+            + File.separator + ".gitlet" + File.separator + "daemon.sock");
+
+    /** Send ARGS to the daemon of the current directory and print its
+     * response. Return false, doing nothing, if no daemon is running. */
+    static boolean forward(String[] args) throws IOException {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(address());
+        } catch (IOException excp) {
+            SOCKET.delete();
+            return false;
+        }
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(
+                    Channels.newOutputStream(channel));
+            Codec.writeString(out, workingDirectory());
+            Codec.writeVarInt(out, args.length);
+            for (String arg : args) {
+                Codec.writeString(out, arg);
+            }
+            if (args.length == 1 && args[0].equals("batch")) {
+                Codec.writeString(out, new String(System.in.readAllBytes(),
+                                                  StandardCharsets.UTF_8));
+            } else {
+                Codec.writeString(out, null);
+            }
+            out.flush();
+            channel.shutdownOutput();
+            InputStream in = Channels.newInputStream(channel);
+            in.transferTo(System.out);
+            System.out.flush();
+        }
+        return true;
+    }
+
+    /** Serve requests on SOCKET until a "daemon stop" request comes
+     * in. Requests are run one at a time, in order of arrival. A
+     * request that cannot be read or fails unexpectedly is answered
+     * with an error message, and the daemon goes on serving. */
+    static void serve() throws IOException {
+        SOCKET.delete();
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(address());
+            SOCKET.deleteOnExit();
+            String cwd = workingDirectory();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel channel = server.accept()) {
+                    try {
+                        running = handle(channel, cwd);
+                    } catch (IOException excp) {
+                        reply(channel, "Malformed request.\n");
+                    } catch (RuntimeException excp) {
+                        reply(channel, "Internal error: " + excp.getMessage()
+                              + "\n");
+                    }
+                } catch (IOException excp) {
+                    continue;
+                }
+            }
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /** Run the request read from CHANNEL, sent for a client in the
+     * directory CWD, and send back its output. Return false iff the
+     * daemon should stop. */
+    private static boolean handle(SocketChannel channel, String cwd)
+        throws IOException {
+        DataInputStream in = new DataInputStream(
+                Channels.newInputStream(channel));
+        String clientDir = Codec.readString(in);
+        String[] args = new String[Codec.readVarInt(in)];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = Codec.readString(in);
+        }
+        String input = Codec.readString(in);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        boolean running = true;
+        if (!cwd.equals(clientDir)) {
+            bytes.writeBytes(("The daemon serves " + cwd + ".\n")
+                             .getBytes(StandardCharsets.UTF_8));
+        } else if (args.length > 0 && args[0].equals("daemon")) {
+            running = args.length != 2 || !args[1].equals("stop");
+            String reply = running ? "A daemon is already running.\n"
+                : "Daemon stopped.\n";
+            bytes.writeBytes(reply.getBytes(StandardCharsets.UTF_8));
+        } else {
+            PrintStream stdout = System.out;
+            InputStream stdin = System.in;
+            System.setOut(new PrintStream(bytes, true,
+                                          StandardCharsets.UTF_8));
+            System.setIn(new ByteArrayInputStream(
+                    input == null ? new byte[0]
+                    : input.getBytes(StandardCharsets.UTF_8)));
+            try {
+                Main.execute(args);
+            } finally {
+                System.out.flush();
+                System.setOut(stdout);
+                System.setIn(stdin);
+            }
+        }
+        reply(channel, bytes.toByteArray());
+        return running;
+    }
+
+    /** Send the message MESSAGE back over CHANNEL. */
+    private static void reply(SocketChannel channel, String message)
+        throws IOException {
+        reply(channel, message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Send OUTPUT back over CHANNEL. */
+    private static void reply(SocketChannel channel, byte[] output)
+        throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                Channels.newOutputStream(channel));
+        out.write(output);
+        out.flush();
+    }
+
+    /** Return the address of SOCKET. */
+    private static UnixDomainSocketAddress address() {
+        return UnixDomainSocketAddress.of(SOCKET.toPath());
+    }
+
+    /** Return the canonical path of the current directory. */
+    private static String workingDirectory() throws IOException {
+        return new File(".").getCanonicalPath();
+    }
+}
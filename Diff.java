@@ -9,6 +9,7 @@ import java.nio.file.Path;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
@@ -18,38 +19,147 @@ import static java.lang.Math.max;
 /** A comparison of two sequences of strings.  After executing setSequences to
  *  initialize the data, methods allow computing longest common sequences
  *  and differences in the form of edits needed to convert one sequence to the
- *  next.
+ *  next.  Lines are first interned into integer ids, equal lines getting
+ *  equal ids, so that the algorithms only compare ints.  How the common
+ *  subsequence is found is chosen by a Strategy: the memoized LCS table,
+ *  which needs space proportional to the product of the lengths, Myers'
+ *  O((N+M)D) algorithm, which needs linear space, or the patience and
+ *  histogram algorithms, which anchor the comparison on rare lines and
+ *  give more readable edits on source code.
  *  @author P. N. Hilfinger */
 public class Diff {
 
+    /** The algorithms that commonSubsequence may use. */
+    public enum Strategy {
+        /** The memoized longest-common-subsequence table of lls. */
+        LCS,
+        /** Myers' algorithm, refined by middle snakes in linear space. */
+        MYERS,
+        /** Patience diff: match the lines occurring once in both
+         *  sequences, keep the longest increasing run of them, and
+         *  recurse between them, using MYERS where there are none. */
+        PATIENCE,
+        /** Histogram diff: match around the line occurring least often
+         *  in the first sequence and recurse on both sides, using MYERS
+         *  where every common line occurs more than MAX_CHAIN times. */
+        HISTOGRAM,
+        /** LCS for inputs whose table has at most LCS_CELLS entries,
+         *  and MYERS otherwise. */
+        AUTO
+    }
+
+    /** Largest number of entries of the LCS table that AUTO uses LCS
+     *  for. */
+    public static final long LCS_CELLS = 1_000_000;
+
+    /** Largest number of occurrences of a line that HISTOGRAM anchors
+     *  on. */
+    public static final int MAX_CHAIN = 64;
+
+    /** Combined size in bytes of two files above which setSequences
+     *  reads them through memory maps. */
+    public static final long MAP_THRESHOLD = 64L << 20;
+
+    /** The strategy of new Diffs: the value of the system property
+     *  gitlet.diff if it names one, and AUTO otherwise. */
+    public static final Strategy DEFAULT_STRATEGY = defaultStrategy();
+
+    /** A Diff using DEFAULT_STRATEGY. */
+    public Diff() {
+        this(DEFAULT_STRATEGY);
+    }
+
+    /** A Diff using STRATEGY. */
+    public Diff(Strategy strategy) {
+        setStrategy(strategy);
+    }
+
+    /** Use STRATEGY to compute common subsequences from now on. */
+    public void setStrategy(Strategy strategy) {
+        _strategy = strategy;
+        _common = null;
+    }
+
+    /** Return the strategy in use. */
+    public Strategy strategy() {
+        return _strategy;
+    }
+
     /** Set the sequences currently being compared to the contents
-     *  of SEQ1 and SEQ2 (as delivered by their iterators). */
+     *  of SEQ1 and SEQ2 (as delivered by their iterators).  MappedLines
+     *  are kept as they are rather than copied. */
     public void setSequences(Collection<String> seq1, Collection<String> seq2) {
-        _lines1 = new ArrayList<>(seq1);
-        _lines2 = new ArrayList<>(seq2);
+        _lines1 = lines(seq1);
+        _lines2 = lines(seq2);
         _lls = null;
         _todo = null;
+        _common = null;
+        _ids1 = _ids2 = null;
     }
 
     /** Set the sequences currently being compared to the contents
-     *  of FILE1 and FILE2.  Null Files set empty lists. */
+     *  of FILE1 and FILE2.  Null Files set empty lists.  Files larger
+     *  together than MAP_THRESHOLD bytes are read through memory maps,
+     *  as for setSequences(FILE1, FILE2, true). */
     public void setSequences(File file1, File file2) {
+        setSequences(file1, file2,
+                     length(file1) + length(file2) > MAP_THRESHOLD);
+    }
+
+    /** Set the sequences currently being compared to the contents
+     *  of FILE1 and FILE2.  Null Files set empty lists.  If MAPPED,
+     *  the files are memory mapped and only an index of their line
+     *  offsets is built: lines are interned straight from the mapped
+     *  bytes and decoded only when get1, get2 or the sequences ask for
+     *  them. */
+    public void setSequences(File file1, File file2, boolean mapped) {
+        if (mapped) {
+            _lines1 = mappedLines(file1);
+            _lines2 = mappedLines(file2);
+        } else {
+            _lines1 = readLines(file1);
+            _lines2 = readLines(file2);
+        }
+        _lls = null;
+        _todo = null;
+        _common = null;
+        _ids1 = _ids2 = null;
+    }
+
+    /** Return SEQ as a list: itself if it is MappedLines, and
+     *  otherwise a copy. */
+    private static List<String> lines(Collection<String> seq) {
+        if (seq instanceof MappedLines) {
+            return (MappedLines) seq;
+        }
+        return new ArrayList<>(seq);
+    }
+
+    /** Return the lines of FILE, or an empty list if it is null or
+     *  cannot be read. */
+    private static List<String> readLines(File file) {
         try {
-            Path p1 = file1.toPath();
-            _lines1 = Files.readAllLines(p1);
+            Path p = file.toPath();
+            return Files.readAllLines(p);
         } catch (IOException | InvalidPathException | NullPointerException
                  excp) {
-            _lines1 = Collections.emptyList();
+            return Collections.emptyList();
         }
+    }
+
+    /** Return the lines of FILE read through memory maps, or an empty
+     *  list if it is null or cannot be read. */
+    private static List<String> mappedLines(File file) {
         try {
-            Path p2 = file2.toPath();
-            _lines2 = Files.readAllLines(p2);
-        } catch (IOException | InvalidPathException | NullPointerException
-                 excp) {
-            _lines2 = Collections.emptyList();
+            return file == null ? MappedLines.EMPTY : new MappedLines(file);
+        } catch (IOException | InvalidPathException excp) {
+            return MappedLines.EMPTY;
         }
-        _lls = null;
-        _todo = null;
+    }
+
+    /** Return the length of FILE in bytes, 0 if it is null. */
+    private static long length(File file) {
+        return file == null ? 0 : file.length();
     }
 
     /** Return the first of the current sequences. */
@@ -76,6 +186,7 @@ public class Diff {
      *  items, respectively, of the current data sequences. */
     public int lls(int k1, int k2) {
         checkData();
+        intern();
         if (_lls == null) {
             _lls = new int[_lines1.size() + 1][_lines2.size() + 1];
             for (int[] row : _lls) {
@@ -97,8 +208,7 @@ public class Diff {
                 } else {
                     switch (_llsState) {
                     case 0:
-                        if (_lines1.get(_llsTop1 - 1)
-                            .equals(_lines2.get(_llsTop2 - 1))) {
+                        if (_ids1[_llsTop1 - 1] == _ids2[_llsTop2 - 1]) {
                             push(_llsTop1, _llsTop2, 4);
                             push(_llsTop1 - 1, _llsTop2 - 1, 0);
                         } else {
@@ -135,17 +245,21 @@ public class Diff {
      *  data subsequences. */
     public int lls() {
         checkData();
-        return lls(_lines1.size(), _lines2.size());
+        int[] common = commonSubsequence();
+        int result;
+        result = 0;
+        for (int k = 2; k < common.length; k += 3) {
+            result += common[k];
+        }
+        return result;
     }
 
     /** Return true iff the sequences currently being compared have identical
      *  content. */
     public boolean sequencesEqual() {
         checkData();
-        if (_lines1.size() != _lines2.size()) {
-            return false;
-        }
-        return lls(_lines1.size(), _lines2.size()) == _lines1.size();
+        intern();
+        return Arrays.equals(_ids1, _ids2);
     }
 
     /** Return an array containing the int values of the items in LIST. */
@@ -166,6 +280,65 @@ public class Diff {
      *  first file (0-based), si2 is the starting position in the second
      *  file, and Li is the length of the subsequence. */
     public int[] commonSubsequence() {
+        checkData();
+        if (_common == null) {
+            intern();
+            if (useLcs()) {
+                _common = lcsSubsequence();
+            } else {
+                _common = trimmedSubsequence();
+            }
+        }
+        return _common;
+    }
+
+    /** Set _ids1 and _ids2 to the ids of the lines of the current
+     *  sequences, unless already set.  Both sequences share one table,
+     *  so that equal lines get equal ids.  Two MappedLines are interned
+     *  in place; any other pair, including one MappedLines and one
+     *  list, through a table of the decoded lines. */
+    private void intern() {
+        if (_ids1 != null) {
+            return;
+        }
+        if (_lines1 instanceof MappedLines && _lines2 instanceof MappedLines) {
+            int[][] ids = MappedLines.intern((MappedLines) _lines1,
+                                             (MappedLines) _lines2);
+            _ids1 = ids[0];
+            _ids2 = ids[1];
+            return;
+        }
+        HashMap<String, Integer> table = new HashMap<>();
+        _ids1 = intern(_lines1, table);
+        _ids2 = intern(_lines2, table);
+    }
+
+    /** Return the ids of LINES, adding new lines to TABLE. */
+    private static int[] intern(List<String> lines,
+                                HashMap<String, Integer> table) {
+        int[] result = new int[lines.size()];
+        int i;
+        i = 0;
+        for (String line : lines) {
+            Integer id = table.putIfAbsent(line, table.size());
+            result[i] = id == null ? table.size() - 1 : id;
+            i += 1;
+        }
+        return result;
+    }
+
+    /** Return true iff the LCS table is to be used for the current
+     *  sequences: always for LCS, for AUTO if the table has at most
+     *  LCS_CELLS entries, and never for the other strategies. */
+    private boolean useLcs() {
+        return _strategy == Strategy.LCS
+            || (_strategy == Strategy.AUTO
+                && (long) (_lines1.size() + 1) * (_lines2.size() + 1)
+                   <= LCS_CELLS);
+    }
+
+    /** Return commonSubsequence() computed with the LCS table. */
+    private int[] lcsSubsequence() {
         ArrayDeque<Integer> resultList = new ArrayDeque<>();
 
         int k1, k2;
@@ -192,6 +365,320 @@ public class Diff {
         return toIntArr(resultList);
     }
 
+    /** Return commonSubsequence() computed with the current strategy
+     *  between the common prefix and suffix of the sequences, which are
+     *  matched first. */
+    private int[] trimmedSubsequence() {
+        int n = _ids1.length, m = _ids2.length;
+        int prefix, suffix;
+        prefix = suffix = 0;
+        while (prefix < n && prefix < m && _ids1[prefix] == _ids2[prefix]) {
+            prefix += 1;
+        }
+        while (suffix < n - prefix && suffix < m - prefix
+               && _ids1[n - suffix - 1] == _ids2[m - suffix - 1]) {
+            suffix += 1;
+        }
+        _runs = new ArrayList<>();
+        addRun(0, 0, prefix);
+        if (_strategy == Strategy.PATIENCE
+            || _strategy == Strategy.HISTOGRAM) {
+            anchored(prefix, n - suffix, prefix, m - suffix);
+        } else {
+            myers(prefix, n - suffix, prefix, m - suffix);
+        }
+        addRun(n - suffix, m - suffix, suffix);
+        int[] result = toIntArr(_runs);
+        _runs = null;
+        return result;
+    }
+
+    /** Add the common subsequence of items [A0 .. A1-1] of the first
+     *  sequence and [B0 .. B1-1] of the second to _runs, using the
+     *  PATIENCE or HISTOGRAM strategy.  Ranges still to be compared and
+     *  runs still to be added are kept on an explicit stack, latest
+     *  first, so that deep splits do not exhaust the call stack. */
+    private void anchored(int a0, int a1, int b0, int b1) {
+        ArrayDeque<int[]> work = new ArrayDeque<>();
+        work.push(new int[] { a0, a1, b0, b1 });
+        while (!work.isEmpty()) {
+            int[] item = work.pop();
+            if (item.length == 3) {
+                addRun(item[0], item[1], item[2]);
+                continue;
+            }
+            a0 = item[0]; a1 = item[1]; b0 = item[2]; b1 = item[3];
+            while (a0 < a1 && b0 < b1 && _ids1[a0] == _ids2[b0]) {
+                addRun(a0, b0, 1);
+                a0 += 1; b0 += 1;
+            }
+            int suffix;
+            suffix = 0;
+            while (a0 < a1 - suffix && b0 < b1 - suffix
+                   && _ids1[a1 - suffix - 1] == _ids2[b1 - suffix - 1]) {
+                suffix += 1;
+            }
+            if (suffix > 0) {
+                work.push(new int[] { a1 - suffix, b1 - suffix, suffix });
+                a1 -= suffix; b1 -= suffix;
+            }
+            if (a0 == a1 || b0 == b1) {
+                continue;
+            }
+            int[] anchors = _strategy == Strategy.PATIENCE
+                ? uniqueAnchors(a0, a1, b0, b1)
+                : histogramAnchor(a0, a1, b0, b1);
+            if (anchors.length == 0) {
+                myers(a0, a1, b0, b1);
+                continue;
+            }
+            int e1 = a1, e2 = b1;
+            for (int k = anchors.length - 3; k >= 0; k -= 3) {
+                int end1 = anchors[k] + anchors[k + 2];
+                int end2 = anchors[k + 1] + anchors[k + 2];
+                work.push(new int[] { end1, e1, end2, e2 });
+                work.push(new int[] { anchors[k], anchors[k + 1],
+                                      anchors[k + 2] });
+                e1 = anchors[k];
+                e2 = anchors[k + 1];
+            }
+            work.push(new int[] { a0, e1, b0, e2 });
+        }
+    }
+
+    /** Return the patience anchors of items [A0 .. A1-1] of the first
+     *  sequence and [B0 .. B1-1] of the second, as runs of length 1 in
+     *  the format of commonSubsequence: the longest sequence of lines
+     *  that occur exactly once in each range and appear in the same
+     *  order in both. */
+    private int[] uniqueAnchors(int a0, int a1, int b0, int b1) {
+        HashMap<Integer, int[]> seen = new HashMap<>();
+        for (int i = a0; i < a1; i += 1) {
+            int[] e = seen.computeIfAbsent(_ids1[i], k -> new int[4]);
+            e[0] += 1;
+            e[1] = i;
+        }
+        for (int j = b0; j < b1; j += 1) {
+            int[] e = seen.get(_ids2[j]);
+            if (e != null) {
+                e[2] += 1;
+                e[3] = j;
+            }
+        }
+        ArrayList<int[]> pairs = new ArrayList<>();
+        for (int i = a0; i < a1; i += 1) {
+            int[] e = seen.get(_ids1[i]);
+            if (e[0] == 1 && e[2] == 1) {
+                pairs.add(new int[] { i, e[3] });
+            }
+        }
+        int[] tails = new int[pairs.size()];
+        int[] back = new int[pairs.size()];
+        int len;
+        len = 0;
+        for (int p = 0; p < pairs.size(); p += 1) {
+            int lo = 0, hi = len;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (pairs.get(tails[mid])[1] < pairs.get(p)[1]) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            back[p] = lo > 0 ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            len = max(len, lo + 1);
+        }
+        int[] result = new int[3 * len];
+        for (int p = len > 0 ? tails[len - 1] : -1, k = 3 * len - 3;
+             p >= 0; p = back[p], k -= 3) {
+            result[k] = pairs.get(p)[0];
+            result[k + 1] = pairs.get(p)[1];
+            result[k + 2] = 1;
+        }
+        return result;
+    }
+
+    /** Return the histogram anchor of items [A0 .. A1-1] of the first
+     *  sequence and [B0 .. B1-1] of the second, as a single run in the
+     *  format of commonSubsequence, or an empty array if there is none.
+     *  The anchor is the longest common region around a line whose
+     *  rarest line occurs least often in the first range, among lines
+     *  occurring at most MAX_CHAIN times. */
+    private int[] histogramAnchor(int a0, int a1, int b0, int b1) {
+        HashMap<Integer, ArrayList<Integer>> where = new HashMap<>();
+        for (int i = a0; i < a1; i += 1) {
+            where.computeIfAbsent(_ids1[i], k -> new ArrayList<>()).add(i);
+        }
+        int best1, best2, bestLen, bestCount;
+        best1 = best2 = bestLen = 0;
+        bestCount = MAX_CHAIN;
+        int j = b0;
+        while (j < b1) {
+            ArrayList<Integer> at = where.get(_ids2[j]);
+            int next = j + 1;
+            if (at != null && at.size() <= bestCount) {
+                for (int i : at) {
+                    int s, e;
+                    s = 0;
+                    while (i - s > a0 && j - s > b0
+                           && _ids1[i - s - 1] == _ids2[j - s - 1]) {
+                        s += 1;
+                    }
+                    e = 1;
+                    while (i + e < a1 && j + e < b1
+                           && _ids1[i + e] == _ids2[j + e]) {
+                        e += 1;
+                    }
+                    int count = at.size();
+                    for (int k = i - s; k < i + e; k += 1) {
+                        count = Math.min(count, where.get(_ids1[k]).size());
+                    }
+                    if (count < bestCount
+                        || (count == bestCount && s + e > bestLen)) {
+                        best1 = i - s;
+                        best2 = j - s;
+                        bestLen = s + e;
+                        bestCount = count;
+                    }
+                    next = max(next, j + e);
+                }
+            }
+            j = next;
+        }
+        if (bestLen == 0) {
+            return new int[0];
+        }
+        return new int[] { best1, best2, bestLen };
+    }
+
+    /** Add the common subsequence of items [A0 .. A1-1] of the first
+     *  sequence and [B0 .. B1-1] of the second to _runs, dividing the
+     *  problem at a middle snake found in linear space. */
+    private void myers(int a0, int a1, int b0, int b1) {
+        int prefix;
+        prefix = 0;
+        while (a0 + prefix < a1 && b0 + prefix < b1
+               && same(a0 + prefix, b0 + prefix)) {
+            prefix += 1;
+        }
+        addRun(a0, b0, prefix);
+        a0 += prefix;
+        b0 += prefix;
+        int suffix;
+        suffix = 0;
+        while (a0 < a1 - suffix && b0 < b1 - suffix
+               && same(a1 - suffix - 1, b1 - suffix - 1)) {
+            suffix += 1;
+        }
+        a1 -= suffix;
+        b1 -= suffix;
+        if (a0 < a1 && b0 < b1) {
+            int[] snake = middleSnake(a0, a1, b0, b1);
+            myers(a0, snake[0], b0, snake[1]);
+            addRun(snake[0], snake[1], snake[2] - snake[0]);
+            myers(snake[2], a1, snake[3], b1);
+        }
+        addRun(a1, b1, suffix);
+    }
+
+    /** Return the middle snake of a shortest edit script from items
+     *  [A0 .. A1-1] of the first sequence to [B0 .. B1-1] of the second,
+     *  whose first and last items differ, as {x0, y0, x1, y1}: the
+     *  snake matches items [x0 .. x1-1] to [y0 .. y1-1].  The forward
+     *  and reverse searches each keep one row of furthest reaching
+     *  paths, indexed by diagonal. */
+    private int[] middleSnake(int a0, int a1, int b0, int b1) {
+        int n = a1 - a0, m = b1 - b0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int most = (n + m + 1) / 2;
+        int off = most + 1;
+        int[] forward = new int[2 * most + 3];
+        int[] reverse = new int[2 * most + 3];
+        for (int d = 0; d <= most; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = furthest(forward, off, k, d);
+                int y = x - k;
+                int x0 = x, y0 = y;
+                while (x < n && y < m && same(a0 + x, b0 + y)) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[off + k] = x;
+                if (odd && k >= delta - (d - 1) && k <= delta + (d - 1)
+                    && x + reverse[off + delta - k] >= n) {
+                    return new int[] { a0 + x0, b0 + y0, a0 + x, b0 + y };
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = furthest(reverse, off, k, d);
+                int y = x - k;
+                int x0 = x, y0 = y;
+                while (x < n && y < m && same(a1 - x - 1, b1 - y - 1)) {
+                    x += 1;
+                    y += 1;
+                }
+                reverse[off + k] = x;
+                if (!odd && delta - k >= -d && delta - k <= d
+                    && x + forward[off + delta - k] >= n) {
+                    return new int[] { a1 - x, b1 - y, a1 - x0, b1 - y0 };
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake");
+    }
+
+    /** Return the furthest position in the first sequence that a path
+     *  with D edits can reach on diagonal K before following a snake,
+     *  given the row V of furthest positions for D - 1 edits, where
+     *  diagonal 0 is at index OFF. */
+    private static int furthest(int[] v, int off, int k, int d) {
+        if (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) {
+            return v[off + k + 1];
+        }
+        return v[off + k - 1] + 1;
+    }
+
+    /** Return true iff item I of the first sequence equals item J of the
+     *  second. */
+    private boolean same(int i, int j) {
+        return _ids1[i] == _ids2[j];
+    }
+
+    /** Add a run of L common items starting at I in the first sequence
+     *  and J in the second to _runs, joining it to the previous run if
+     *  they are adjacent. */
+    private void addRun(int i, int j, int L) {
+        if (L == 0) {
+            return;
+        }
+        int last = _runs.size() - 3;
+        if (last >= 0 && _runs.get(last) + _runs.get(last + 2) == i
+            && _runs.get(last + 1) + _runs.get(last + 2) == j) {
+            _runs.set(last + 2, _runs.get(last + 2) + L);
+        } else {
+            _runs.add(i);
+            _runs.add(j);
+            _runs.add(L);
+        }
+    }
+
+    /** Return the strategy named by the system property gitlet.diff, or
+     *  AUTO. */
+    private static Strategy defaultStrategy() {
+        String name = System.getProperty("gitlet.diff");
+        if (name != null) {
+            for (Strategy s : Strategy.values()) {
+                if (s.name().equalsIgnoreCase(name)) {
+                    return s;
+                }
+            }
+        }
+        return Strategy.AUTO;
+    }
+
     /** Return the edit that converts the first of the sequences being compared
      *  to the second. This is a sequence of 4n values d0, dL0, a0, aL0, ...,
      *  where the lines [di .. di + dL0 - 1] are the ranges of line
@@ -268,6 +755,20 @@ public class Diff {
      *  data sequences of lengths a and b, or -1 if not calculated. */
     private int[][] _lls;
 
+    /** The strategy in use. */
+    private Strategy _strategy;
+
+    /** The common subsequence of the current sequences, as returned by
+     *  commonSubsequence, or null if not computed yet. */
+    private int[] _common;
+
+    /** The interned ids of the lines of the current sequences, or null
+     *  if not interned yet. */
+    private int[] _ids1, _ids2;
+
+    /** The runs found so far, as for commonSubsequence. */
+    private ArrayList<Integer> _runs;
+
     /** A stack structure used by lls. */
     private int[] _todo;
     /** Structure for the work queue used by lls. */
@@ -0,0 +1,156 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/** Removes the commits and blobs that no branch can reach any more.
+ * The mark phase walks the commit graph from the branch heads, then
+ * the trees of every commit found, skipping subtrees already marked.
+ * Commit files written within the grace period are kept, and marked
+ * with their ancestors, even if unreachable, and so is any blob
+ * written within it. The sweep then deletes the other commit files
+ * and loose blobs. A sweep may stop after a given number of
+ * deletions: what it left is swept by the next run, which is what
+ * lets gc run a little at a time, after the commands that add
+ * commits, once the graph has grown by AUTO_COMMITS since the last
+ * complete run. That run's commit count, and whether a sweep is
+ * pending, are kept in a small state file.
+ * @author Jonny W. */
+class GarbageCollector {
+
+    /** Default grace period, in milliseconds. */
+    static final long GRACE = 14L * 24 * 60 * 60 * 1000;
+
+    /** Number of commits added since the last complete run after which
+     * a run is due. */
+    static final int AUTO_COMMITS = 1000;
+
+    /** Largest number of files deleted by one automatic run. */
+    static final int AUTO_LIMIT = 10_000;
+
+    /** A collector of the commits in COMMITFOLDER and the blobs of
+     * STORE, keeping its state in STATEFILE. */
+    GarbageCollector(File commitFolder, BlobStore store, File stateFile) {
+        this.commitFolder = commitFolder;
+        this.store = store;
+        this.stateFile = stateFile;
+    }
+
+    /** Return true iff an automatic run is due for the graph G: a
+     * sweep was left unfinished, or G grew by AUTO_COMMITS commits. */
+    boolean due(CommitGraph g) {
+        HashMap<String, String> state = state();
+        return Boolean.parseBoolean(state.get("pending"))
+            || g.size() >= Integer.parseInt(state.getOrDefault("commits",
+                                                               "0"))
+                + AUTO_COMMITS;
+    }
+
+    /** Delete everything the commits ROOTS and the blobs BLOBS, with
+     * their chunks, do not reach in the graph G, except what was
+     * written less than GRACE milliseconds ago, stopping after LIMIT
+     * deletions. Return the number of commit files deleted. */
+    int collect(CommitGraph g, Collection<String> roots,
+                Collection<String> blobs, long grace, int limit) {
+        long cutoff = System.currentTimeMillis() - grace;
+        HashSet<String> liveCommits = new HashSet<String>(roots);
+        HashSet<String> live = new HashSet<String>();
+        for (String id : blobs) {
+            markBlob(id, live);
+        }
+        boolean[] marked = new boolean[g.size()];
+        for (String id : roots) {
+            mark(g, g.find(id), marked, liveCommits, live);
+        }
+        ArrayList<File> dead = new ArrayList<File>();
+        try (DirectoryStream<Path> files =
+                 Files.newDirectoryStream(commitFolder.toPath())) {
+            for (Path p : files) {
+                File f = p.toFile();
+                if (liveCommits.contains(f.getName())) {
+                    continue;
+                } else if (f.lastModified() >= cutoff) {
+                    mark(g, g.find(f.getName()), marked, liveCommits, live);
+                } else {
+                    dead.add(f);
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot list commits.");
+        }
+        int commits = 0;
+        for (File f : dead) {
+            if (commits == limit) {
+                break;
+            }
+            if (!liveCommits.contains(f.getName()) && f.delete()) {
+                commits += 1;
+            }
+        }
+        int deleted = commits + store.sweep(live, cutoff, limit - commits);
+        HashMap<String, String> state = state();
+        state.put("pending", String.valueOf(deleted >= limit));
+        if (deleted < limit) {
+            state.put("commits", String.valueOf(g.size() - commits));
+        }
+        Utils.writeContents(stateFile, Codec.encodeMap(state));
+        return commits;
+    }
+
+    /** Mark the commit K of G, unless it is NONE or MARKED already, and
+     * its ancestors: add their ids to COMMITS and their trees and blobs
+     * to LIVE. */
+    private void mark(CommitGraph g, int k, boolean[] marked,
+                      HashSet<String> commits, HashSet<String> live) {
+        ArrayDeque<Integer> todo = new ArrayDeque<Integer>();
+        todo.push(k);
+        while (!todo.isEmpty()) {
+            k = todo.pop();
+            if (k == CommitGraph.NONE || marked[k]) {
+                continue;
+            }
+            marked[k] = true;
+            commits.add(g.id(k));
+            Tree.mark(g.snapshotId(k), store, live);
+            todo.push(g.parent1(k));
+            todo.push(g.parent2(k));
+        }
+    }
+
+    /** Add the blob ID, and its chunks if it is stored in chunks, to
+     * LIVE, as Tree.mark does for the blobs of a tree. */
+    private void markBlob(String id, HashSet<String> live) {
+        if (live.add(id)) {
+            List<String> chunks = store.chunks(id);
+            if (chunks != null) {
+                live.addAll(chunks);
+            }
+        }
+    }
+
+    /** Return the saved state, empty if there is none. */
+    private HashMap<String, String> state() {
+        if (!stateFile.isFile()) {
+            return new HashMap<String, String>();
+        }
+        return Codec.decodeMap(Utils.readContents(stateFile));
+    }
+
+    /** The folder of commit files. */
+    private final File commitFolder;
+
+    /** The blob store swept. */
+    private final BlobStore store;
+
+    /** The file keeping the state between runs. */
+    private final File stateFile;
+}
@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/** A cache of the blob ids of the files in the working directory,
+ * keyed by file name. Each entry remembers the size and modification
+ * time the file had when it was hashed, so that a file is only read
+ * again once its stat data changes.
+ *
+ * An entry whose modification time is not older than the moment the
+ * index was last written is "racily clean": the file may have been
+ * changed again within the same clock tick without its stat data
+ * changing, so such entries are always rehashed. Those not rehashed
+ * before the index is written again are smudged, so that they stay
+ * untrusted.
+ * @author Jonny W. */
+class Index {
+
+    /** Kind byte of an encoded index, as for Codec. */
+    static final byte INDEX = 'I';
+
+    /** Size of a smudged entry, which matches no file. */
+    private static final long SMUDGED = -1;
+
+    /** The index kept in the file INDEXFILE, which may not exist yet. */
+    Index(File indexFile) {
+        file = indexFile;
+        entries = new HashMap<String, Entry>();
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(file)))) {
+            Codec.readHeader(in, INDEX);
+            writtenAt = in.readLong();
+            int count = Codec.readVarInt(in);
+            for (int i = 0; i < count; i += 1) {
+                String name = Codec.readString(in);
+                entries.put(name, new Entry(in.readLong(), in.readLong(),
+                                            Codec.readString(in)));
+            }
+        } catch (IOException | GitletException excp) {
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    /** Return the blob id of the current contents of the file F,
+     * named NAME, reading the file only if its stat data changed
+     * since it was last hashed or its entry is racily clean. */
+    String hash(File f, String name) {
+        Entry e = lookup(f, name);
+        update(name, e);
+        return e.id;
+    }
+
+    /** Return the blob ids of the current contents of FILES, keyed by
+     * the same names as FILES. The files whose stat data changed are
+     * hashed in parallel, each streamed through SHA-1, and the index
+     * is updated with all of them at once afterwards. */
+    HashMap<String, String> hash(Map<String, File> files) {
+        Map<String, Entry> found = files.entrySet().parallelStream()
+            .collect(Collectors.toMap(Map.Entry::getKey,
+                each -> lookup(each.getValue(), each.getKey())));
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (var each : found.entrySet()) {
+            update(each.getKey(), each.getValue());
+            result.put(each.getKey(), each.getValue().id);
+        }
+        return result;
+    }
+
+    /** Return the blob id of the current contents of the file F,
+     * named by its own name. */
+    String hash(File f) {
+        return hash(f, f.getName());
+    }
+
+    /** Drop the entries of files not hashed since this index was
+     * read or last pruned, which no longer exist in the working
+     * directory. */
+    void prune() {
+        if (entries.keySet().retainAll(seen)) {
+            dirty = true;
+        }
+        seen.clear();
+    }
+
+    /** Write this index back to its file if it changed. Entries that
+     * are racily clean but were not hashed again since the index was
+     * last written are smudged first, so that the new, later write
+     * time does not make them trusted without their files ever being
+     * read: their files are hashed again the next time they are
+     * looked up. */
+    void save() {
+        for (var each : entries.entrySet()) {
+            Entry e = each.getValue();
+            if (e.size != SMUDGED && racilyClean(e)
+                && !hashed.contains(each.getKey())) {
+                each.setValue(new Entry(SMUDGED, e.mtime, e.id));
+                dirty = true;
+            }
+        }
+        if (!dirty) {
+            return;
+        }
+        writtenAt = System.currentTimeMillis();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Codec.writeHeader(out, INDEX);
+            out.writeLong(writtenAt);
+            Codec.writeVarInt(out, entries.size());
+            for (var each : entries.entrySet()) {
+                Codec.writeString(out, each.getKey());
+                out.writeLong(each.getValue().size);
+                out.writeLong(each.getValue().mtime);
+                Codec.writeString(out, each.getValue().id);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error writing index.");
+        }
+        Utils.writeContents(file, bytes.toByteArray());
+        dirty = false;
+        hashed.clear();
+    }
+
+    /** Return the entry of the file F, named NAME: its current entry
+     * if the stat data of F still matches it and it is not racily
+     * clean, and otherwise a new entry with F hashed again. Does not
+     * change this index, so it may be called from several threads. */
+    private Entry lookup(File f, String name) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(f.toPath(),
+                                         BasicFileAttributes.class);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        long size = attrs.size();
+        long mtime = attrs.lastModifiedTime().toMillis();
+        Entry e = entries.get(name);
+        if (e != null && e.size == size && e.mtime == mtime
+            && !racilyClean(e)) {
+            return e;
+        }
+        return new Entry(size, mtime, BlobStore.hash(f));
+    }
+
+    /** Make E the entry of NAME and mark NAME as seen, and as hashed
+     * if E is new. */
+    private void update(String name, Entry e) {
+        if (entries.put(name, e) != e) {
+            dirty = true;
+            hashed.add(name);
+        }
+        seen.add(name);
+    }
+
+    /** Return true iff E was modified in the same second the index
+     * was last written (or later), so that its stat data cannot be
+     * trusted on file systems with coarse timestamps. */
+    private boolean racilyClean(Entry e) {
+        return e.mtime >= writtenAt / 1000 * 1000;
+    }
+
+    /** The stat data and blob id of one file. */
+    private static class Entry {
+        /** An entry for a file of SIZE bytes last modified at MTIME
+         * whose contents hash to ID. */
+        Entry(long size, long mtime, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.id = id;
+        }
+
+        /** Size of the file in bytes. */
+        private final long size;
+        /** Modification time of the file in milliseconds. */
+        private final long mtime;
+        /** Blob id of the contents of the file. */
+        private final String id;
+    }
+
+    /** The file holding this index. */
+    private final File file;
+
+    /** Entries by file name. */
+    private final HashMap<String, Entry> entries;
+
+    /** Names hashed since this index was read or last pruned. */
+    private final HashSet<String> seen = new HashSet<String>();
+
+    /** Names whose files were read and hashed since this index was
+     * read or last written. */
+    private final HashSet<String> hashed = new HashSet<String>();
+
+    /** Time at which the index was last written, in milliseconds. */
+    private long writtenAt;
+
+    /** True iff the entries changed since the index was read. */
+    private boolean dirty;
+}
@@ -1,14 +1,34 @@
 package gitlet;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Jonny W.
@@ -30,6 +50,89 @@ public class Main {
     private static final File TEMP_FOLDER = new File("."
             + File.separator + ".gitlet" + File.separator + "temps");
 
+    /** A blobs folder containing every tracked file version, named
+     * by the SHA-1 of its contents. */
+    private static final File BLOB_FOLDER = new File("."
+            + File.separator + ".gitlet" + File.separator + "blobs");
+
+    /** A packs folder containing delta-compressed packs of blobs,
+     * written by the repack command. */
+    private static final File PACK_FOLDER = new File("."
+            + File.separator + ".gitlet" + File.separator + "packs");
+
+    /** A manifests folder listing the chunks of every file stored in
+     * chunks. */
+    private static final File MANIFEST_FOLDER = new File("."
+            + File.separator + ".gitlet" + File.separator + "manifests");
+
+    /** The blob store that commits read and write file contents
+     * through. */
+    private static final BlobStore BLOBS = new BlobStore(BLOB_FOLDER,
+            PACK_FOLDER, MANIFEST_FOLDER);
+
+    /** The folder the files replaced by checkout, reset and merge are
+     * kept in until all their changes are made. */
+    private static final File BACKUP_FOLDER = new File("."
+            + File.separator + ".gitlet" + File.separator + "backup");
+
+    /** Writes checked-out and merged files to the working directory,
+     * all at once and in parallel. */
+    private static final Materializer WORKTREE =
+            new Materializer(BLOBS, BACKUP_FOLDER);
+
+    /** The stat-cached index of the blob ids of the files in the
+     * working directory. */
+    private static final File INDEX_FILE = new File("."
+            + File.separator + ".gitlet" + File.separator + "index");
+
+    /** The index of the working directory, read from INDEX_FILE. */
+    private static Index index;
+
+    /** The commit-graph file, a table of every commit's parents and
+     * generation number. */
+    private static final File GRAPH_FILE = new File("."
+            + File.separator + ".gitlet" + File.separator + "commit-graph");
+
+    /** The dates and log messages of the commits in GRAPH_FILE. */
+    private static final File GRAPH_TEXT_FILE = new File("."
+            + File.separator + ".gitlet" + File.separator
+            + "commit-graph-text");
+
+    /** The commit graph, or null if not opened yet. */
+    private static CommitGraph graph;
+
+    /** A messages folder holding the inverted index of log messages
+     * used by find. */
+    private static final File MESSAGE_FOLDER = new File("."
+            + File.separator + ".gitlet" + File.separator + "messages");
+
+    /** The message index, or null if not opened yet. */
+    private static MessageIndex messages;
+
+    /** Decoded commits, kept across the commands of a batch or a
+     * daemon. Its capacity in bytes is the system property
+     * gitlet.commitCache, 32 MiB by default. */
+    private static final CommitCache COMMITS = new CommitCache(
+            Long.getLong("gitlet.commitCache", 32L << 20));
+
+    /** True iff the counters of COMMITS are printed to the standard
+     * error after each command, as set by the system property
+     * gitlet.cacheStats. */
+    private static final boolean CACHE_STATS =
+            Boolean.getBoolean("gitlet.cacheStats");
+
+    /** The state kept by gc between runs. */
+    private static final File GC_FILE = new File("."
+            + File.separator + ".gitlet" + File.separator + "gc-state");
+
+    /** Removes unreachable commits and blobs for gc. */
+    private static final GarbageCollector COLLECTOR =
+            new GarbageCollector(COMMIT_FOLDER, BLOBS, GC_FILE);
+
+    /** Number of commits per worker thread that global-log decodes
+     * ahead of its output. */
+    private static final int LOG_WINDOW = 4;
+
     /** A pointer to the current commit in the commit tree. */
     private static Commit headNode;
 
@@ -41,40 +144,180 @@ public class Main {
      * Hashmap<Branch, Commit ID>*/
     private static HashMap<String, String> branches;
 
+    /** True iff headNode changed and must be written back. */
+    private static boolean headDirty;
+
+    /** True iff branches changed and must be written back. */
+    private static boolean branchesDirty;
+
+    /** True iff branchUpdate changed and must be written back. */
+    private static boolean branchUpdateDirty;
+
+    /** True iff a commit was made since gc last checked whether it is
+     * due. */
+    private static boolean recorded;
+
+    /** How much of the repository a command needs before it runs.
+     * Each level also loads everything the levels before it load. */
+    private enum Load {
+        /** Nothing beyond the commits folder. */
+        NONE,
+        /** The branches and the current branch. */
+        REFS,
+        /** The working head commit and the index. */
+        HEAD,
+        /** A scan of the working directory for untracked and
+         * modified files. */
+        WORKTREE
+    }
+
+    /** How much of the repository is currently loaded. Stays above
+     * NONE between commands only when running as a daemon. */
+    private static Load loaded = Load.NONE;
+
     /** Usage: java gitlet.Main ARGS, where ARGS contains
-     *  <COMMAND> <OPERAND> .... */
-    @SuppressWarnings("unchecked")
-    public static void main(String... args) throws
-            IOException, ClassNotFoundException {
-        if (args.length == 0) {
-            handleError("Please enter a command.");
+     *  <COMMAND> <OPERAND> .... If a daemon runs in the current
+     *  directory, the command is forwarded to it. "daemon" starts
+     *  one, and "daemon stop" stops it. */
+    public static void main(String... args) throws IOException {
+        if (Daemon.forward(args)) {
+            return;
         }
-        if (!args[0].equals("init") && GITLET_FOLDER.exists()) {
-            File inFile = new File(TEMP_FOLDER, "working-headNode");
+        if (args.length > 0 && args[0].equals("daemon")) {
+            if (!GITLET_FOLDER.exists()) {
+                System.out.println("Not in an initialized Gitlet directory.");
+            } else if (args.length == 1) {
+                Daemon.serve();
+            } else {
+                System.out.println("No daemon is running.");
+            }
+            return;
+        }
+        execute(args);
+    }
+
+    /** Run the command in ARGS, printing its error message if it
+     * fails. After a failure the loaded state is dropped unsaved, just
+     * as if the process had exited, so that a daemon goes on with the
+     * state on disk. */
+    static void execute(String... args) {
+        try {
+            if (args.length == 0) {
+                handleError("Please enter a command.");
+            }
+            if (!args[0].equals("init") && !GITLET_FOLDER.exists()) {
+                handleError("Not in an initialized Gitlet directory.");
+            }
+            load(loadNeeded(args));
+            divert(args);
+            save();
+            if (recorded) {
+                recorded = false;
+                gc(GarbageCollector.GRACE, true);
+                save();
+            }
+            if (CACHE_STATS) {
+                System.err.println(COMMITS);
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            forget();
+        } catch (IOException | ClassNotFoundException
+                 | RuntimeException excp) {
+            System.out.println("Internal error: " + excp.getMessage());
+            forget();
+        }
+    }
+
+    /** Drop all loaded state, so that it is read from disk again by
+     * the next command. */
+    private static void forget() {
+        headNode = null;
+        branches = null;
+        branchUpdate = null;
+        index = null;
+        graph = null;
+        messages = null;
+        WORKTREE.clear();
+        loaded = Load.NONE;
+        headDirty = false;
+        branchesDirty = false;
+        branchUpdateDirty = false;
+        recorded = false;
+    }
+
+    /** Return how much of the repository the command in ARGS needs
+     * loaded. Only checking out a whole branch looks at untracked
+     * files, so checking out single files skips the scan. */
+    private static Load loadNeeded(String[] args) {
+        return switch (args[0]) {
+        case "log", "branch", "rm-branch", "merge-base" -> Load.REFS;
+        case "add", "commit", "rm", "repack", "diff", "gc" -> Load.HEAD;
+        case "checkout" -> args.length == 2 ? Load.WORKTREE : Load.HEAD;
+        case "status", "reset", "merge" -> Load.WORKTREE;
+        default -> Load.NONE;
+        };
+    }
+
+    /** Read the parts of the repository that LEVEL asks for and that
+     * are not loaded yet. The working directory is scanned again each
+     * time it is asked for. */
+    private static void load(Load level) throws IOException {
+        if (level.compareTo(Load.REFS) >= 0
+                && loaded.compareTo(Load.REFS) < 0) {
             File inFile2 = new File(TEMP_FOLDER, "working-branches");
             File inFile3 = new File(TEMP_FOLDER, "working-branchUpdate");
-            ObjectInputStream inp = new ObjectInputStream(
-                    new FileInputStream(inFile));
-            ObjectInputStream inp2 = new ObjectInputStream(
-                    new FileInputStream(inFile2));
-            ObjectInputStream inp3 = new ObjectInputStream(
-                    new FileInputStream(inFile3));
-            headNode = (Commit) inp.readObject();
-            branches = (HashMap<String, String>) inp2.readObject();
-            branchUpdate = (String) inp3.readObject();
-            inp.close();
-            inp2.close();
-            inp3.close();
-            updateUntracked();
-            updateModified();
-        } else if (!args[0].equals("init") && !GITLET_FOLDER.exists()) {
-            handleError("Not in an initialized Gitlet directory.");
-        }
-        divert(args);
-        headNode.saveCommit(COMMIT_FOLDER);
-        saveCurVar(headNode, "headNode", TEMP_FOLDER);
-        saveCurVar(branches, "branches", TEMP_FOLDER);
-        saveCurVar(branchUpdate, "branchUpdate", TEMP_FOLDER);
+            branches = Codec.decodeMap(Utils.readContents(inFile2));
+            branchUpdate = Codec.decodeString(Utils.readContents(inFile3));
+        }
+        if (level.compareTo(Load.HEAD) >= 0
+                && loaded.compareTo(Load.HEAD) < 0) {
+            File inFile = new File(TEMP_FOLDER, "working-headNode");
+            headNode = readCommit(inFile);
+            index = new Index(INDEX_FILE);
+        }
+        if (level.compareTo(Load.WORKTREE) >= 0) {
+            updateWorkTree();
+            index.prune();
+        }
+        if (level.compareTo(loaded) > 0) {
+            loaded = level;
+        }
+    }
+
+    /** Write back the parts of the repository that the command
+     * changed. Commands that only read leave .gitlet untouched. The
+     * commit files, commit graph and message index are written before
+     * the head and branches that refer to them, so that a crash in
+     * between never publishes a commit the graph lacks. */
+    private static void save() throws IOException {
+        if (headDirty) {
+            headNode.saveCommit(COMMIT_FOLDER);
+            COMMITS.remove(headNode.getCommitId());
+        }
+        if (graph != null) {
+            graph.flush();
+        }
+        if (messages != null) {
+            messages.flush();
+        }
+        if (headDirty) {
+            saveCurVar(Codec.encodeCommit(headNode), "headNode",
+                    TEMP_FOLDER);
+        }
+        if (branchesDirty) {
+            saveCurVar(Codec.encodeMap(branches), "branches", TEMP_FOLDER);
+        }
+        if (branchUpdateDirty) {
+            saveCurVar(Codec.encodeString(branchUpdate), "branchUpdate",
+                    TEMP_FOLDER);
+        }
+        if (index != null) {
+            index.save();
+        }
+        headDirty = false;
+        branchesDirty = false;
+        branchUpdateDirty = false;
     }
 
     /** A diversion class that determines which method to run from
@@ -88,7 +331,7 @@ public class Main {
         }
         case "add" -> {
             checkFormat(args[0], args);
-            add(args[1]);
+            add(List.of(args).subList(1, args.length));
         }
         case "commit" -> {
             commit(args);
@@ -102,12 +345,21 @@ public class Main {
             log();
         }
         case "global-log" -> {
-            checkFormat(args[0], args);
-            globalLog();
+            boolean ordered = args.length == 2
+                    && args[1].equals("--ordered");
+            if (!ordered) {
+                checkFormat(args[0], args);
+            }
+            globalLog(ordered);
         }
         case "find" -> {
-            checkFormat(args[0], args);
-            find(args[1]);
+            if (args.length == 3 && (args[1].equals("--tokens")
+                    || args[1].equals("--substring"))) {
+                find(args[2], args[1]);
+            } else {
+                checkFormat(args[0], args);
+                find(args[1], null);
+            }
         }
         case "status" -> {
             checkFormat(args[0], args);
@@ -132,60 +384,238 @@ public class Main {
             checkFormat(args[0], args);
             merge(args[1]);
         }
+        case "repack" -> {
+            checkFormat(args[0], args);
+            repack();
+        }
+        case "gc" -> {
+            if (args.length > 2 || args.length == 2
+                    && !args[1].equals("--now") && !args[1].equals("--auto")) {
+                handleError("Incorrect operands.");
+            }
+            boolean auto = args.length == 2 && args[1].equals("--auto");
+            gc(args.length == 2 && args[1].equals("--now") ? 0
+               : GarbageCollector.GRACE, auto);
+        }
+        case "merge-base" -> {
+            boolean all = args.length == 4 && args[1].equals("--all");
+            if (args.length != 3 && !all) {
+                handleError("Incorrect operands.");
+            }
+            mergeBase(args[args.length - 2], args[args.length - 1], all);
+        }
+        case "diff" -> {
+            List<String> all = List.of(args);
+            int dashes = all.indexOf("--");
+            List<String> revs = all.subList(1,
+                    dashes < 0 ? args.length : dashes);
+            if (revs.size() > 2) {
+                handleError("Incorrect operands.");
+            }
+            diff(revs, dashes < 0 ? List.of()
+                 : all.subList(dashes + 1, args.length));
+        }
+        case "batch" -> {
+            if (args.length > 2) {
+                handleError("Incorrect operands.");
+            }
+            batch(args.length == 2 ? args[1] : null);
+        }
         default -> handleError("No command with that name exists.");
         }
     }
 
-    /** Saves the current working variable SAVE, given the variable
-     * name NAME, in the directory PATH. All names are saved as
-     * "working-[variable name]*/
-    private static void saveCurVar(Object save, String name,
+    /** Saves the current working variable SAVE, already encoded by
+     * Codec, given the variable name NAME, in the directory PATH. All
+     * names are saved as "working-[variable name]. The file is written
+     * under a temporary name and then renamed over the old one, so it
+     * is never seen half-written. */
+    private static void saveCurVar(byte[] save, String name,
                                    File path) throws IOException {
         File outFile = new File(path, "working-" + name);
-        ObjectOutputStream out = new ObjectOutputStream(
-                new FileOutputStream(outFile));
-        out.writeObject(save);
-        out.close();
+        File tmpFile = new File(path, "working-" + name + ".tmp");
+        Utils.writeContents(tmpFile, save);
+        Files.move(tmpFile.toPath(), outFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Run the commands in the file SCRIPT, or on the standard input
+     * if SCRIPT is null, one command per line. Arguments are separated
+     * by blanks and may be quoted with ' or "; blank lines and lines
+     * starting with # are skipped. The repository is loaded once, kept
+     * in memory from command to command and written back once after
+     * the last one. The first failing command stops the batch, and the
+     * state in memory is dropped; commits that switching branches had
+     * to write out and changes already made to the working directory
+     * stay. The files of the state are each replaced by a rename, but
+     * not all at once, so a crash while saving may leave some written
+     * and others not. */
+    private static void batch(String script) throws
+            IOException, ClassNotFoundException {
+        BufferedReader in;
+        if (script == null) {
+            in = new BufferedReader(new InputStreamReader(System.in,
+                    StandardCharsets.UTF_8));
+        } else if (new File(script).isFile()) {
+            in = Files.newBufferedReader(new File(script).toPath(),
+                    StandardCharsets.UTF_8);
+        } else {
+            handleError("File does not exist.");
+            return;
+        }
+        try (in) {
+            int lineNum = 0;
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                lineNum += 1;
+                String[] args = splitCommand(line.strip());
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                }
+                if (args[0].equals("init") || args[0].equals("batch")
+                        || args[0].equals("daemon")) {
+                    handleError("Line " + lineNum + ": cannot run "
+                            + args[0] + " in a batch.");
+                }
+                try {
+                    load(loadNeeded(args));
+                    divert(args);
+                } catch (GitletException excp) {
+                    handleError("Line " + lineNum + ": "
+                            + excp.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Return the arguments in the command line LINE, split at blanks
+     * except within single or double quotes. */
+    private static String[] splitCommand(String line) {
+        ArrayList<String> result = new ArrayList<String>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"'
+                        && i + 1 < line.length()) {
+                    i += 1;
+                    arg.append(line.charAt(i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    result.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+        if (quote != 0) {
+            handleError("Unbalanced quotes.");
+        }
+        if (arg != null) {
+            result.add(arg.toString());
+        }
+        return result.toArray(new String[0]);
     }
 
     /** Initializes a new gitlet directory, if none exists. */
-    private static void init() {
+    private static void init() throws
+            IOException, ClassNotFoundException {
         if (!GITLET_FOLDER.exists()) {
             GITLET_FOLDER.mkdir();
             COMMIT_FOLDER.mkdir();
             TEMP_FOLDER.mkdir();
+            BLOB_FOLDER.mkdir();
+            PACK_FOLDER.mkdir();
+            MANIFEST_FOLDER.mkdir();
             Commit newCommit = new Commit();
-            newCommit.setCommitId(Utils.sha1(Utils.serialize(newCommit)));
             headNode = newCommit;
             headNode.initFiles(null);
             headNode.setTimeStamp(1);
             headNode.setLogMessage("initial commit");
+            seal(headNode);
+            record(headNode);
             branches = new HashMap<String, String>();
             branches.put("master", newCommit.getCommitId());
             branchUpdate = "master";
+            index = new Index(INDEX_FILE);
+            headDirty = true;
+            branchesDirty = true;
+            branchUpdateDirty = true;
         } else {
             handleError("A Gitlet version-control system already "
                     + "exists in the current directory.");
         }
     }
 
-    /** Add the file FILE to the current commit. */
-    private static void add(String file) {
-        File f = new File(file);
-        if (f.exists()) {
-            headNode.addFiles(f, file);
-            headNode.removeUntracked(file);
-            headNode.removeModified(file);
-            headNode.removeRemoved(file);
-        } else {
-            handleError("File does not exist.");
+    /** Add the files and directories PATHS to the current commit.
+     * Directories are added with every file below them. The files are
+     * hashed and stored in parallel, and then staged together. */
+    private static void add(List<String> paths) {
+        TreeMap<String, File> found = new TreeMap<String, File>();
+        for (String path : paths) {
+            File f = new File(path);
+            if (!f.exists()) {
+                handleError("File does not exist.");
+            }
+            collectFiles(f, found);
+        }
+        HashMap<String, String> ids = index.hash(found);
+        ids.entrySet().removeIf(each ->
+                each.getValue().equals(headNode.getNewFiles()
+                                       .get(each.getKey())));
+        ids.entrySet().parallelStream().forEach(each ->
+                BLOBS.put(found.get(each.getKey()), each.getValue()));
+        headNode.addAll(ids);
+        for (String name : found.keySet()) {
+            headNode.removeUntracked(name);
+            headNode.removeModified(name);
+            headNode.removeRemoved(name);
+        }
+        headDirty = true;
+    }
+
+    /** Add the file F, or every file below F if it is a directory, to
+     * FOUND under its name relative to the working directory. The
+     * .gitlet folder is skipped. */
+    private static void collectFiles(File f, TreeMap<String, File> found) {
+        if (f.isDirectory()) {
+            if (f.getName().equals(GITLET_FOLDER.getName())) {
+                return;
+            }
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collectFiles(child, found);
+                }
+            }
+        } else if (f.isFile()) {
+            Path cwd = CWD.toPath().toAbsolutePath().normalize();
+            Path path = f.toPath().toAbsolutePath().normalize();
+            found.put(cwd.relativize(path).toString()
+                      .replace(File.separatorChar, Tree.SEPARATOR), f);
         }
     }
 
     /** Commit the current node with ARGS in the format as it
      * was passed in, and creates a new node. Any variable in
      * the committed commit cannot be changed. */
-    private static void commit(String[] args) throws IOException {
+    private static void commit(String[] args) throws
+            IOException, ClassNotFoundException {
         if (args.length > 2) {
             handleError("Incorrect operands.");
         } else if (args.length == 1 || args[1].length() == 0) {
@@ -200,20 +630,20 @@ public class Main {
         newCommit.initFiles(headNode.getNewFiles());
         newCommit.setLogMessage(args[1]);
         newCommit.setTimeStamp();
-        newCommit.setCommitId(Utils.sha1(Utils.serialize(newCommit)));
-        File outFile = new File(COMMIT_FOLDER, headNode.getCommitId());
-        outFile.createNewFile();
-        ObjectOutputStream out = new ObjectOutputStream(
-                new FileOutputStream(outFile));
-        out.writeObject(headNode);
-        out.close();
+        seal(newCommit);
+        record(newCommit);
+        headNode.saveCommit(COMMIT_FOLDER);
+        COMMITS.remove(headNode.getCommitId());
         headNode = newCommit;
         branches.put(branchUpdate, headNode.getCommitId());
+        headDirty = true;
+        branchesDirty = true;
     }
 
     /** Remove the file FILE from current commit. If staged,
      * unstage; if modified, un-modify and remove the file. */
     private static void rm(String file) {
+        headDirty = true;
         if (headNode.getStaged().containsKey(file)) {
             headNode.removeStaged(file);
         } else if (headNode.getNewFiles().containsKey(file)) {
@@ -230,49 +660,164 @@ public class Main {
     }
 
     /** Prints out the log for every commit, starting with the
-     * current commit and tracing back to the first commit. */
+     * current commit and tracing back to the first commit. Only the
+     * commit graph is read. */
     private static void log() throws IOException, ClassNotFoundException {
-        Commit temp = headNode;
-        while (temp != null) {
-            logOutput(temp);
-            temp = getCommit(temp.getPrev());
+        CommitGraph g = getGraph();
+        for (int k = g.find(branches.get(branchUpdate));
+             k != CommitGraph.NONE; k = g.parent1(k)) {
+            System.out.println("===");
+            System.out.println("commit " + g.id(k));
+            System.out.println("Date: " + g.timeStamp(k));
+            System.out.println(g.message(k));
+            System.out.println();
         }
     }
 
     /** Prints out the log for every commit, including commits in
-     * other branch. */
-    private static void globalLog() throws
+     * other branch. The commits folder is listed lazily and commits
+     * are decoded in parallel, with at most LOG_WINDOW of them in
+     * flight, so memory use does not grow with the history. Commits
+     * are printed as they are decoded, taken from a completion queue,
+     * or, if ORDERED, in the order the folder lists them, waiting on
+     * each task in turn; ordered tasks bypass the completion queue,
+     * which would otherwise keep every one of them. */
+    private static void globalLog(boolean ordered) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<String> done =
+                new ExecutorCompletionService<String>(pool);
+        ArrayDeque<Future<String>> inFlight = new ArrayDeque<Future<String>>();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                System.out, StandardCharsets.UTF_8), 1 << 16);
+        try (DirectoryStream<Path> dir =
+                     Files.newDirectoryStream(COMMIT_FOLDER.toPath())) {
+            for (Path p : dir) {
+                String id = p.getFileName().toString();
+                Callable<String> task = () -> logText(getCommit(id));
+                inFlight.add(ordered ? pool.submit(task) : done.submit(task));
+                if (inFlight.size() >= LOG_WINDOW * threads) {
+                    out.write(ordered ? inFlight.remove().get()
+                            : takeDone(done, inFlight));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                out.write(ordered ? inFlight.remove().get()
+                        : takeDone(done, inFlight));
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw Utils.error("Cannot read commit: %s", excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+    }
+
+    /** Return the text of the next commit decoded by DONE, removing
+     * its task from INFLIGHT. */
+    private static String takeDone(CompletionService<String> done,
+                                   ArrayDeque<Future<String>> inFlight)
+            throws InterruptedException, ExecutionException {
+        Future<String> next = done.take();
+        inFlight.remove(next);
+        return next.get();
+    }
+
+    /** Prints out the commits with log message MESSAGE, looked up in
+     * the message index. With MODE "--tokens", prints the commits whose
+     * message contains every word of MESSAGE; with "--substring", scans
+     * the messages in the commit graph for MESSAGE. */
+    private static void find(String message, String mode) throws
             IOException, ClassNotFoundException {
-        File[] filesList = COMMIT_FOLDER.listFiles();
-        if (filesList != null) {
-            for (File f : filesList) {
-                if (f.isFile()) {
-                    Commit c = getCommit(f.getName());
-                    logOutput(c);
+        List<String> found;
+        if (mode == null) {
+            found = getMessages().find(message);
+        } else if (mode.equals("--tokens")) {
+            found = getMessages().findTokens(message);
+        } else {
+            CommitGraph g = getGraph();
+            found = new ArrayList<String>();
+            for (int k = 0; k < g.size(); k += 1) {
+                if (g.message(k).contains(message)) {
+                    found.add(g.id(k));
                 }
             }
         }
+        if (found.isEmpty()) {
+            handleError("Found no commit with that message.");
+        }
+        for (String id : found) {
+            System.out.println(id);
+        }
     }
 
-    /** Iterate through all the commit files in the COMMIT_FOLDER,
-     * and prints out the commit with log message MESSAGE. */
-    private static void find(String message) throws
+    /** Return the message index, building it from the commit graph
+     * the first time it is needed in a repository that has none. */
+    private static MessageIndex getMessages() throws
             IOException, ClassNotFoundException {
-        File[] filesList = COMMIT_FOLDER.listFiles();
-        if (filesList != null) {
-            boolean found = false;
-            for (File f : filesList) {
-                if (f.isFile()) {
-                    Commit c = getCommit(f.getName());
-                    if (c.getLogMessage().equals(message)) {
-                        System.out.println(c.getCommitId());
-                        found = true;
-                    }
+        if (messages == null) {
+            messages = new MessageIndex(MESSAGE_FOLDER);
+            if (!messages.exists()) {
+                CommitGraph g = getGraph();
+                for (int k = 0; k < g.size(); k += 1) {
+                    messages.add(g.id(k), g.message(k));
                 }
             }
-            if (!found) {
-                handleError("Found no commit with that message.");
+        }
+        return messages;
+    }
+
+    /** Write the tree of the new commit C and set its id, which is
+     * computed from the tree, parents, time and message only. Every
+     * tracked directory's tree is encoded and hashed, and those not
+     * yet in the blob store are stored. */
+    private static void seal(Commit c) {
+        c.setTree(Tree.write(c.getFiles(), BLOBS));
+        c.setCommitId(c.canonicalId());
+    }
+
+    /** Add the new commit C, sealed already, to the commit graph and
+     * the message index. */
+    private static void record(Commit c) throws
+            IOException, ClassNotFoundException {
+        MessageIndex m = getMessages();
+        getGraph().add(c);
+        m.add(c.getCommitId(), c.getLogMessage());
+        recorded = true;
+    }
+
+    /** Deletes the commits and blobs that no branch reaches and that
+     * are older than GRACE milliseconds, keeping the blobs staged in
+     * the working head. If AUTO, does nothing unless a run is due and
+     * deletes at most GarbageCollector.AUTO_LIMIT files, leaving the
+     * rest to the next run. The commit graph and message index are
+     * rebuilt if commits were deleted. */
+    private static void gc(long grace, boolean auto) throws
+            IOException, ClassNotFoundException {
+        CommitGraph g = getGraph();
+        if (auto && !COLLECTOR.due(g)) {
+            return;
+        }
+        ArrayList<String> roots = new ArrayList<String>(branches.values());
+        roots.add(headNode.getCommitId());
+        ArrayList<String> blobs =
+                new ArrayList<String>(headNode.getNewFiles().values());
+        blobs.addAll(headNode.getStaged().values());
+        if (COLLECTOR.collect(g, roots, blobs, grace,
+                auto ? GarbageCollector.AUTO_LIMIT : Integer.MAX_VALUE) > 0) {
+            graph = null;
+            messages = null;
+            COMMITS.clear();
+            GRAPH_FILE.delete();
+            GRAPH_TEXT_FILE.delete();
+            File[] postings = MESSAGE_FOLDER.listFiles();
+            if (postings != null) {
+                for (File f : postings) {
+                    f.delete();
+                }
             }
+            MESSAGE_FOLDER.delete();
+            getGraph();
         }
     }
 
@@ -314,33 +859,27 @@ public class Main {
      * depend on the checkout command. */
     private static void checkout(String[] args) throws
             IOException, ClassNotFoundException {
+        headDirty = true;
         if (args.length == 3) {
             checkFormatSpc(args[1], "--");
-            if (headNode.getFiles().containsKey(args[2])) {
-                headNode.getNewFiles().put(args[2],
-                        headNode.getFiles().get(args[2]));
-                writeActualFile(args[2],
-                        headNode.getNewFiles().get(args[2]));
+            String id = headNode.getFile(args[2]);
+            if (id != null) {
+                headNode.getNewFiles().put(args[2], id);
+                writeActualFile(args[2], id);
+                WORKTREE.run();
             } else {
                 handleError("File does not exist in that commit");
             }
         } else if (args.length == 4) {
             checkFormatSpc(args[2], "--");
-            Commit c = getCommit(args[1]);
-            if (c == null) {
-                c = checkShortId(args[1]);
-            }
-            if (c != null) {
-                if (c.getFiles().containsKey(args[3])) {
-                    headNode.getNewFiles().put(
-                            args[3], c.getFiles().get(args[3]));
-                    writeActualFile(args[3],
-                            headNode.getNewFiles().get(args[3]));
-                } else {
-                    handleError("File does not exist in that commit");
-                }
+            Commit c = getCommit(getGraph().id(resolveId(args[1])));
+            String id = c.getFile(args[3]);
+            if (id != null) {
+                headNode.getNewFiles().put(args[3], id);
+                writeActualFile(args[3], id);
+                WORKTREE.run();
             } else {
-                handleError("No commit with that id exists.");
+                handleError("File does not exist in that commit");
             }
         } else if (args.length == 2) {
             if (args[1].equals(branchUpdate)) {
@@ -350,19 +889,15 @@ public class Main {
             if (id != null) {
                 Commit c = getCommit(id);
                 for (var each: headNode.getUntracked().entrySet()) {
-                    if (c.getFiles().containsKey(each.getKey())) {
+                    if (c.getFile(each.getKey()) != null) {
                         handleError("There is an untracked file in "
                                 + "the way; delete it, or add and commit "
                                 + "it first.");
                     }
                 }
-                headNode = c;
-                for (var each: headNode.getFiles().entrySet()) {
-                    writeActualFile(each.getKey(), each.getValue());
-                }
-                deleteFiles();
-                headNode.clearSetUps();
+                switchTo(c);
                 branchUpdate = args[1];
+                branchUpdateDirty = true;
             } else {
                 handleError("No such branch exists.");
             }
@@ -371,23 +906,6 @@ public class Main {
         }
     }
 
-    /** Checks if SHORTENED belongs to any commit. Return null if
-     * still no commit found. */
-    private static Commit checkShortId(String shortened) throws
-            IOException, ClassNotFoundException {
-        File[] filesList = COMMIT_FOLDER.listFiles();
-        if (filesList != null) {
-            for (File f : filesList) {
-                if (f.isFile()) {
-                    if (f.getName().contains(shortened)) {
-                        return getCommit(f.getName());
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
     /** Created a new branch of commits named NAME. Does not
      * change the headNode pointer, still pointing to the
      * current branch.*/
@@ -395,7 +913,8 @@ public class Main {
         if (branches.containsKey(name)) {
             handleError("A branch with that name already exists.");
         }
-        branches.put(name, headNode.getCommitId());
+        branches.put(name, branches.get(branchUpdate));
+        branchesDirty = true;
     }
 
     /** Removes the branch pointer named NAME. Does not delete
@@ -406,6 +925,7 @@ public class Main {
                 handleError("Cannot remove the current branch");
             } else {
                 branches.remove(name);
+                branchesDirty = true;
             }
         } else {
             handleError("A branch with that name does not exist.");
@@ -419,19 +939,16 @@ public class Main {
         Commit c = getCommit(id);
         if (c != null) {
             for (var each: headNode.getUntracked().entrySet()) {
-                if (c.getFiles().containsKey(each.getKey())) {
+                if (c.getFile(each.getKey()) != null) {
                     handleError("There is an untracked file in "
                             + "the way; delete it, or add and "
                             + "commit it first.");
                 }
             }
-            headNode = c;
-            for (var each: headNode.getFiles().entrySet()) {
-                writeActualFile(each.getKey(), each.getValue());
-            }
-            deleteFiles();
-            headNode.clearSetUps();
+            switchTo(c);
             branches.put(branchUpdate, headNode.getCommitId());
+            headDirty = true;
+            branchesDirty = true;
         } else {
             handleError("No commit with that id exists.");
         }
@@ -440,6 +957,7 @@ public class Main {
     /** Merge the branch BRANCH to the current branch.*/
     private static void merge(String branch) throws
             IOException, ClassNotFoundException {
+        headDirty = true;
         if (headNode.getStaged().isEmpty() && headNode.getRemoved().isEmpty()) {
             if (!branch.equals(branchUpdate)) {
                 String id = branches.get(branch);
@@ -457,9 +975,14 @@ public class Main {
                     }
                     Commit splitPoint = getCommit(spId);
                     Commit mergeBranch = getCommit(id);
-                    HashMap<String, String> hnFiles = headNode.getFiles();
-                    HashMap<String, String> spFiles = splitPoint.getFiles();
-                    HashMap<String, String> mbFiles = mergeBranch.getFiles();
+                    HashMap<String, String> hnFiles =
+                            new HashMap<String, String>();
+                    HashMap<String, String> spFiles =
+                            new HashMap<String, String>();
+                    HashMap<String, String> mbFiles =
+                            new HashMap<String, String>();
+                    mergeFiles(splitPoint, mergeBranch, spFiles, hnFiles,
+                               mbFiles);
                     conflict = mergeHelper(hnFiles, spFiles, mbFiles);
                     for (var each: mbFiles.entrySet()) {
                         if (spFiles.containsKey(each.getKey())) {
@@ -467,7 +990,7 @@ public class Main {
                                     each.getValue())) {
                                 if (!headNode.getStaged().containsKey(
                                         each.getKey())) {
-                                    writeConflict(each.getKey(), "",
+                                    writeConflict(each.getKey(), null,
                                             mbFiles.get(each.getKey()));
                                     conflict = true;
                                 }
@@ -482,6 +1005,7 @@ public class Main {
                             }
                         }
                     }
+                    WORKTREE.run();
                     if (spId.equals(headNode.getCommitId())) {
                         System.out.println("Current branch fast-forwarded");
                     }
@@ -500,6 +1024,38 @@ public class Main {
         }
     }
 
+    /** Fill SPFILES, HNFILES and MBFILES with the files of the split
+     * point SPLITPOINT, the head and the merged branch MERGEBRANCH,
+     * leaving out every file that is the same in all three, which
+     * merging would not touch. Subtrees shared by the head or the
+     * branch with the split point are skipped. */
+    private static void mergeFiles(Commit splitPoint, Commit mergeBranch,
+                                   HashMap<String, String> spFiles,
+                                   HashMap<String, String> hnFiles,
+                                   HashMap<String, String> mbFiles) {
+        TreeMap<String, String[]> ours = changedFiles(splitPoint, headNode);
+        TreeMap<String, String[]> theirs =
+                changedFiles(splitPoint, mergeBranch);
+        TreeSet<String> names = new TreeSet<String>(ours.keySet());
+        names.addAll(theirs.keySet());
+        for (String name : names) {
+            String[] hn = ours.get(name);
+            String[] mb = theirs.get(name);
+            String sp = hn != null ? hn[0] : mb[0];
+            putIfPresent(spFiles, name, sp);
+            putIfPresent(hnFiles, name, hn != null ? hn[1] : sp);
+            putIfPresent(mbFiles, name, mb != null ? mb[1] : sp);
+        }
+    }
+
+    /** Map NAME to ID in FILES unless ID is null. */
+    private static void putIfPresent(HashMap<String, String> files,
+                                     String name, String id) {
+        if (id != null) {
+            files.put(name, id);
+        }
+    }
+
     /** A method just for making merge method shorter in order to
      * pass the style check. HNFILES SPFILES MBFILES. Return conflict. */
     private static boolean mergeHelper(HashMap<String, String> hnFiles,
@@ -521,10 +1077,7 @@ public class Main {
                         }
                     } else {
                         headNode.removeStaged(each.getKey());
-                        File inFile = new File(each.getKey());
-                        if (inFile.exists()) {
-                            inFile.delete();
-                        }
+                        WORKTREE.delete(each.getKey());
                     }
                 } else {
                     if (mbFiles.containsKey(each.getKey())) {
@@ -541,7 +1094,7 @@ public class Main {
                     } else {
                         writeConflict(each.getKey(),
                                 hnFiles.get(each.getKey()),
-                                "");
+                                null);
                         conflict = true;
                     }
                 }
@@ -560,19 +1113,20 @@ public class Main {
         return conflict;
     }
 
-    /** Write the conflict file NAME with CURCONTENT and CONFCONTENT. */
-    private static void writeConflict(String name, String curContent,
-                                      String confContent) throws IOException {
-        writeActualFile(name, "<<<<<<< HEAD\n"
-                + curContent + "=======\n"
-                + confContent + ">>>>>>>\n");
-        headNode.addFiles(name, "<<<<<<< HEAD\n"
-                + curContent + "=======\n"
-                + confContent + ">>>>>>>\n");
+    /** Write the conflict file NAME with the contents of the blobs
+     * CURID and CONFID. A null id stands for an absent file. */
+    private static void writeConflict(String name, String curId,
+                                      String confId) throws IOException {
+        String id = BLOBS.put("<<<<<<< HEAD\n"
+                + BLOBS.getAsString(curId) + "=======\n"
+                + BLOBS.getAsString(confId) + ">>>>>>>\n");
+        writeActualFile(name, id);
+        headNode.addFiles(name, id);
     }
 
     /** The commit for merging BRANCH into current branch. */
-    private static void mergeCommit(String branch) throws IOException {
+    private static void mergeCommit(String branch) throws
+            IOException, ClassNotFoundException {
         Commit newCommit = new Commit();
         newCommit.setPrev(headNode.getCommitId());
         newCommit.setPrev2(branches.get(branch));
@@ -580,48 +1134,301 @@ public class Main {
         newCommit.setLogMessage("Merged " + branch + " into "
                 + branchUpdate + ".");
         newCommit.setTimeStamp();
-        newCommit.setCommitId(Utils.sha1(Utils.serialize(newCommit)));
-        File outFile = new File(COMMIT_FOLDER, headNode.getCommitId());
-        outFile.createNewFile();
-        ObjectOutputStream out = new ObjectOutputStream(
-                new FileOutputStream(outFile));
-        out.writeObject(headNode);
-        out.close();
+        seal(newCommit);
+        record(newCommit);
+        headNode.saveCommit(COMMIT_FOLDER);
+        COMMITS.remove(headNode.getCommitId());
         headNode = newCommit;
         branches.put(branchUpdate, headNode.getCommitId());
+        branchesDirty = true;
     }
 
     /** Return the commid ID for the split point between current
-     * and given branch MERGE. */
+     * and given branch MERGE. When a criss-cross history has several
+     * merge bases, the one with the highest generation (then the most
+     * recent) is used. */
     private static String getSplitPoint(String merge) throws
             IOException, ClassNotFoundException {
-        String splitPoint;
-        Commit temp = headNode;
-        ArrayList<String> headHistory = new ArrayList<String>();
-        while (true) {
-            if (temp != null) {
-                headHistory.add(temp.getCommitId());
-                if (temp.getPrev2() != null) {
-                    temp = getCommit(temp.getPrev2());
-                } else {
-                    temp = getCommit(temp.getPrev());
+        CommitGraph g = getGraph();
+        List<Integer> bases = g.mergeBases(g.find(headNode.getCommitId()),
+                g.find(branches.get(merge)));
+        if (bases.isEmpty()) {
+            handleError("No common ancestor.");
+        }
+        return g.id(bases.get(0));
+    }
+
+    /** Prints the merge base of the commits REV1 and REV2, each a
+     * branch name or a (possibly abbreviated) commit id. With ALL,
+     * prints every merge base of a criss-cross history. */
+    private static void mergeBase(String rev1, String rev2, boolean all)
+            throws IOException, ClassNotFoundException {
+        CommitGraph g = getGraph();
+        List<Integer> bases = g.mergeBases(resolve(rev1), resolve(rev2));
+        if (bases.isEmpty()) {
+            handleError("No common ancestor.");
+        }
+        for (int k : all ? bases : bases.subList(0, 1)) {
+            System.out.println(g.id(k));
+        }
+    }
+
+    /** Prints unified diffs between two versions of the files under
+     * PATHS (of every file if there are none). With no REVS, compares
+     * the staged files with the working directory; with one, that
+     * commit with the working directory; with two, the first commit
+     * with the second. Commits are compared through their trees and
+     * working files through the index, so only changed files are
+     * read. Files are diffed in parallel, with at most LOG_WINDOW
+     * per thread in flight, and printed in path order. Each diff reads
+     * its versions through memory maps and keeps only an index of their
+     * lines and its edit script, so a file in flight costs memory in
+     * proportion to its number of lines rather than its size; hunks are
+     * formatted straight to the output as they are written. */
+    private static void diff(List<String> revs, List<String> paths)
+            throws IOException, ClassNotFoundException {
+        TreeMap<String, String[]> changes;
+        boolean worktree = revs.size() < 2;
+        if (worktree) {
+            Map<String, String> from = revs.isEmpty()
+                    ? headNode.getNewFiles() : commitOf(revs.get(0)).getFiles();
+            TreeSet<String> names = new TreeSet<String>(from.keySet());
+            names.addAll(headNode.getNewFiles().keySet());
+            names.removeIf(name -> !underPaths(name, paths));
+            TreeMap<String, File> present = new TreeMap<String, File>();
+            for (String name : names) {
+                File f = new File(name);
+                if (f.isFile()) {
+                    present.put(name, f);
                 }
-            } else {
-                break;
             }
+            HashMap<String, String> now = index.hash(present);
+            changes = new TreeMap<String, String[]>();
+            for (String name : names) {
+                if (!Objects.equals(from.get(name), now.get(name))) {
+                    changes.put(name,
+                            new String[] {from.get(name), now.get(name)});
+                }
+            }
+        } else {
+            changes = changedFiles(commitOf(revs.get(0)),
+                                   commitOf(revs.get(1)));
+            changes.keySet().removeIf(name -> !underPaths(name, paths));
         }
-        temp = getCommit(branches.get(merge));
-        while (true) {
-            if (headHistory.contains(temp.getCommitId())) {
-                splitPoint = temp.getCommitId();
-                break;
-            } else if (temp.getPrev2() != null) {
-                temp = getCommit(temp.getPrev2());
-            } else {
-                temp = getCommit(temp.getPrev());
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<UnifiedDiff>> inFlight =
+                new ArrayDeque<Future<UnifiedDiff>>();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                System.out, StandardCharsets.UTF_8), 1 << 16);
+        try {
+            for (var each : changes.entrySet()) {
+                String name = each.getKey();
+                String[] ids = each.getValue();
+                inFlight.add(pool.submit(() -> diffOf(name, ids, worktree)));
+                if (inFlight.size() >= LOG_WINDOW * threads) {
+                    inFlight.remove().get().write(out);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                inFlight.remove().get().write(out);
             }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw Utils.error("Cannot diff: %s", excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+            out.flush();
+        }
+    }
+
+    /** Return the differences between the versions IDS of the file
+     * NAME, the second of which is the working file if WORKTREE. Loose
+     * blobs are diffed in place; other blobs are copied into temporary
+     * files, which are deleted once they are mapped. */
+    private static UnifiedDiff diffOf(String name, String[] ids,
+                                      boolean worktree) throws IOException {
+        ArrayList<File> temps = new ArrayList<File>();
+        try {
+            File before = blobFile(ids[0], temps);
+            File after = ids[1] == null ? null
+                : worktree ? new File(name) : blobFile(ids[1], temps);
+            return new UnifiedDiff(name, before, after);
+        } finally {
+            for (File temp : temps) {
+                if (!temp.delete()) {
+                    temp.deleteOnExit();
+                }
+            }
+        }
+    }
+
+    /** Return a file holding the blob ID, or null if ID is null: its
+     * own file if it is loose, and otherwise a temporary copy, which is
+     * added to TEMPS. */
+    private static File blobFile(String id, List<File> temps)
+            throws IOException {
+        if (id == null) {
+            return null;
+        }
+        File loose = BLOBS.looseFile(id);
+        if (loose != null) {
+            return loose;
+        }
+        TEMP_FOLDER.mkdirs();
+        File temp = File.createTempFile("diff-", ".tmp", TEMP_FOLDER);
+        temps.add(temp);
+        try (FileChannel out = FileChannel.open(temp.toPath(),
+                StandardOpenOption.WRITE)) {
+            BLOBS.copyTo(id, out);
         }
-        return splitPoint;
+        return temp;
+    }
+
+    /** Return true iff the file NAME is one of PATHS or below one of
+     * them, or PATHS is empty. */
+    private static boolean underPaths(String name, List<String> paths) {
+        if (paths.isEmpty()) {
+            return true;
+        }
+        for (String path : paths) {
+            String p = path.replace(File.separatorChar, Tree.SEPARATOR);
+            while (p.endsWith("/") && p.length() > 1) {
+                p = p.substring(0, p.length() - 1);
+            }
+            if (p.equals(".") || name.equals(p)
+                    || name.startsWith(p + Tree.SEPARATOR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the commit named by REV, a branch name or a unique
+     * prefix of a commit id. */
+    private static Commit commitOf(String rev) throws
+            IOException, ClassNotFoundException {
+        return getCommit(getGraph().id(resolve(rev)));
+    }
+
+    /** Return the graph index of the commit named by REV, a branch
+     * name or a unique prefix of a commit id. */
+    private static int resolve(String rev) throws
+            IOException, ClassNotFoundException {
+        if (branches.containsKey(rev)) {
+            return getGraph().find(branches.get(rev));
+        }
+        return resolveId(rev);
+    }
+
+    /** Return the graph index of the commit whose id is, or uniquely
+     * starts with, PREFIX. */
+    private static int resolveId(String prefix) throws
+            IOException, ClassNotFoundException {
+        CommitGraph g = getGraph();
+        int found = g.find(prefix);
+        if (found != CommitGraph.NONE) {
+            return found;
+        }
+        for (int k = 0; k < g.size(); k += 1) {
+            if (g.id(k).startsWith(prefix)) {
+                if (found != CommitGraph.NONE) {
+                    handleError("Ambiguous commit id.");
+                }
+                found = k;
+            }
+        }
+        if (found == CommitGraph.NONE) {
+            handleError("No commit with that id exists.");
+        }
+        return found;
+    }
+
+    /** Return the commit graph, building it from the commit files
+     * the first time it is needed in a repository that has none. The
+     * branch heads and the head commit, with their ancestors, are
+     * added if the graph lacks them, as it does after a crash between
+     * writing a commit and flushing the graph. */
+    private static CommitGraph getGraph() throws
+            IOException, ClassNotFoundException {
+        if (graph == null) {
+            graph = new CommitGraph(GRAPH_FILE, GRAPH_TEXT_FILE);
+            if (!graph.exists()) {
+                File[] filesList = COMMIT_FOLDER.listFiles();
+                if (filesList != null) {
+                    for (File f : filesList) {
+                        addToGraph(f.getName());
+                    }
+                }
+            }
+            if (branches != null) {
+                for (String id : branches.values()) {
+                    addToGraph(id);
+                }
+            }
+            if (headNode != null) {
+                addToGraph(headNode.getCommitId());
+            }
+        }
+        return graph;
+    }
+
+    /** Add the commit ID and any of its ancestors missing from the
+     * graph, parents first. Does nothing if ID is in the graph
+     * already. */
+    private static void addToGraph(String id) throws
+            IOException, ClassNotFoundException {
+        if (graph.find(id) != CommitGraph.NONE) {
+            return;
+        }
+        ArrayDeque<Commit> todo = new ArrayDeque<Commit>();
+        Commit start = getCommit(id);
+        if (start != null) {
+            todo.push(start);
+        }
+        while (!todo.isEmpty()) {
+            Commit c = todo.peek();
+            boolean ready = true;
+            for (String p : new String[] {c.getPrev(), c.getPrev2()}) {
+                if (p != null && graph.find(p) == CommitGraph.NONE) {
+                    todo.push(getCommit(p));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                c = todo.pop();
+                if (c.getTree() == null) {
+                    c.setTree(Tree.write(c.getFiles(), BLOBS));
+                }
+                graph.add(c);
+            }
+        }
+    }
+
+    /** Packs every blob into a single delta-compressed pack. The
+     * versions each file name has had in any commit are grouped
+     * together so that they can be stored as deltas of each other. */
+    private static void repack() throws
+            IOException, ClassNotFoundException {
+        HashMap<String, LinkedHashSet<String>> versions =
+                new HashMap<String, LinkedHashSet<String>>();
+        ArrayList<HashMap<String, String>> snapshots =
+                new ArrayList<HashMap<String, String>>();
+        File[] filesList = COMMIT_FOLDER.listFiles();
+        if (filesList != null) {
+            for (File f : filesList) {
+                if (f.isFile()) {
+                    snapshots.add(getCommit(f.getName()).getFiles());
+                }
+            }
+        }
+        snapshots.add(headNode.getNewFiles());
+        for (HashMap<String, String> snapshot : snapshots) {
+            for (var each : snapshot.entrySet()) {
+                versions.computeIfAbsent(each.getKey(),
+                        k -> new LinkedHashSet<String>()).add(each.getValue());
+            }
+        }
+        BLOBS.repack(versions.values());
     }
 
     /** Checks if the command entered is correctly formatted,
@@ -629,11 +1436,15 @@ public class Main {
     private static void checkFormat(String command, String[] args) {
         if (command.equals("init") || command.equals("log")
                 || command.equals("global-log")
-                || command.equals("status")) {
+                || command.equals("status") || command.equals("repack")) {
             if (args.length != 1) {
                 handleError("Incorrect operands.");
             }
-        } else if (command.equals("add") || command.equals("rm")
+        } else if (command.equals("add")) {
+            if (args.length < 2) {
+                handleError("Incorrect operands.");
+            }
+        } else if (command.equals("rm")
                 || command.equals("find") || command.equals("branch")
                 || command.equals("rm-branch") || command.equals("reset")
                 || command.equals("merge")) {
@@ -651,17 +1462,25 @@ public class Main {
     }
 
     /** Return the commit appointed by ID. Return null if such
-     * commit does not exist. */
+     * commit does not exist. The working head commit is returned
+     * as is, since it is only written out when the command (or the
+     * batch) finishes. Other commits are looked up in COMMITS before
+     * their files are read, and are added to it once read; the head
+     * commit is removed from it, since it may change. */
     private static Commit getCommit(String id) throws
             IOException, ClassNotFoundException {
+        if (headNode != null && headNode.getCommitId().equals(id)) {
+            return headNode;
+        }
         if (id != null) {
-            Commit c;
+            Commit c = COMMITS.get(id);
+            if (c != null) {
+                return c;
+            }
             File inFile = new File(COMMIT_FOLDER, id);
             if (inFile.exists()) {
-                ObjectInputStream inp = new ObjectInputStream(
-                        new FileInputStream(inFile));
-                c = (Commit) inp.readObject();
-                inp.close();
+                c = readCommit(inFile);
+                COMMITS.put(id, c, inFile.length());
                 return c;
             } else {
                 return null;
@@ -671,67 +1490,67 @@ public class Main {
         }
     }
 
-    /** Update any untracked file in the directory. */
-    private static void updateUntracked() {
-        File[] filesList = CWD.listFiles();
-        if (filesList != null) {
-            for (File f : filesList) {
-                if (f.isFile()) {
-                    if (!headNode.getNewFiles().containsKey(f.getName())) {
-                        headNode.addUntracked(f);
-                        if (headNode.getModified().containsKey(f.getName())) {
-                            headNode.removeModified(f.getName());
-                        }
-                    }
-                }
-            }
+    /** Return the commit stored in the file INFILE. A commit written
+     * by an older version of gitlet is migrated to blob ids and saved
+     * again in the current format. */
+    private static Commit readCommit(File inFile) throws IOException {
+        byte[] data = Utils.readContents(inFile);
+        Commit c = Codec.decodeCommit(data);
+        c.setStore(BLOBS);
+        if (Codec.isLegacy(data)) {
+            BLOB_FOLDER.mkdir();
+            c.migrate(BLOBS);
+            c.saveCommit(COMMIT_FOLDER);
         }
+        return c;
     }
 
-    /** Update any files that are modified. Modified files must
-     * already be present in headNode.getFile(). */
-    private static void updateModified() {
-        if (headNode != null) {
-            for (var each : headNode.getNewFiles().entrySet()) {
-                File curFile = new File(each.getKey());
-                if (curFile.exists()) {
-                    String content = Utils.readContentsAsString(curFile);
-                    if (!content.equals(
-                            headNode.getNewFiles().get(each.getKey()))) {
-                        headNode.addModified(curFile);
+    /** Record in the head the untracked files of the working
+     * directory, including those in its subdirectories, and the tracked
+     * files that were modified or deleted, as found by StatusWalk. */
+    private static void updateWorkTree() {
+        StatusWalk.walk(CWD, headNode.getNewFiles(), index,
+                new StatusWalk.Listener() {
+                    @Override
+                    public void untracked(String name, String id) {
+                        headNode.addUntracked(name, id);
+                        if (headNode.getModified().containsKey(name)) {
+                            headNode.removeModified(name);
+                        }
                     }
-                } else {
-                    headNode.addModified(each.getKey());
-                }
-            }
-        }
+
+                    @Override
+                    public void modified(String name, String id) {
+                        if (id == null) {
+                            headNode.addModified(name);
+                        } else {
+                            headNode.addModified(name, id);
+                        }
+                    }
+                });
     }
 
-    /** Exit with printing the error message ERR. */
+    /** Abort the current command with the error message ERR, which
+     * is printed by execute. */
     private static void handleError(String err) {
-        System.out.println(err);
-        System.exit(0);
+        throw new GitletException(err);
     }
 
-    /** Write/overwrite the actual file NAME with content CONTENT. */
-    private static void writeActualFile(String name,
-                                        String content) throws IOException {
-        File outFile = new File(name);
-        if (outFile.exists()) {
-            Utils.writeContents(outFile, content);
-        } else {
-            outFile.createNewFile();
-            Utils.writeContents(outFile, content);
-        }
+    /** Queue writing/overwriting the actual file NAME with the
+     * contents of the blob ID. The file is written by the next
+     * WORKTREE.run(). */
+    private static void writeActualFile(String name, String id) {
+        WORKTREE.write(name, id);
     }
 
-    /** Prints out the log for commit C. */
-    private static void logOutput(Commit c) {
-        System.out.println("===");
-        System.out.println("commit " + c.getCommitId());
-        System.out.println("Date: " + c.getTimeStamp());
-        System.out.println(c.getLogMessage());
-        System.out.println();
+    /** Return the log output for commit C. */
+    private static String logText(Commit c) {
+        String nl = System.lineSeparator();
+        return "===" + nl
+                + "commit " + c.getCommitId() + nl
+                + "Date: " + c.getTimeStamp() + nl
+                + c.getLogMessage() + nl
+                + nl;
     }
 
     /** Print the keys in HashMap PRINTING in lexicographic order,
@@ -746,18 +1565,57 @@ public class Main {
         }
     }
 
-    /** Delete the files in the current working directory that
-     * are not in the current commit. */
-    private static void deleteFiles() {
-        File[] filesList = CWD.listFiles();
-        if (filesList != null) {
-            for (File f : filesList) {
-                if (f.isFile()) {
-                    if (!headNode.getFiles().containsKey(f.getName())) {
-                        f.delete();
-                    }
+    /** Make the commit C the head and the working directory match
+     * it. Only files whose blob id in C differs from the one tracked
+     * now, or that were modified since, are written, and only files
+     * tracked now but absent from C are deleted. Subtrees that the
+     * head and C share are skipped without being read. A head changed
+     * by this batch is written out first, so that it can still be
+     * read back before the batch ends. */
+    private static void switchTo(Commit c) throws IOException {
+        HashMap<String, String> current = headNode.getNewFiles();
+        TreeMap<String, String> target = new TreeMap<String, String>();
+        for (var each : changedFiles(headNode, c).entrySet()) {
+            target.put(each.getKey(), each.getValue()[1]);
+        }
+        for (HashMap<String, String> changed : List.of(headNode.getStaged(),
+                headNode.getRemoved(), headNode.getModified())) {
+            for (String name : changed.keySet()) {
+                if (!target.containsKey(name)) {
+                    target.put(name, c.getFile(name));
+                }
+            }
+        }
+        for (var each : target.entrySet()) {
+            String name = each.getKey();
+            if (each.getValue() == null) {
+                if (current.containsKey(name)) {
+                    WORKTREE.delete(name);
                 }
+            } else if (!each.getValue().equals(current.get(name))
+                    || headNode.getModified().containsKey(name)
+                    || !new File(name).isFile()) {
+                writeActualFile(name, each.getValue());
             }
         }
+        WORKTREE.run();
+        if (headDirty) {
+            headNode.saveCommit(COMMIT_FOLDER);
+            COMMITS.remove(headNode.getCommitId());
+        }
+        COMMITS.remove(c.getCommitId());
+        headNode = c;
+        headNode.clearSetUps();
+    }
+
+    /** Return the files whose blob ids differ between the commits A
+     * and B, each mapped to its ids in A and in B (null if absent).
+     * When both commits have trees, shared subtrees are skipped. */
+    private static TreeMap<String, String[]> changedFiles(Commit a,
+                                                          Commit b) {
+        if (a.getTree() != null && b.getTree() != null) {
+            return Tree.diff(a.getTree(), b.getTree(), BLOBS);
+        }
+        return Tree.diff(a.getFiles(), b.getFiles());
     }
 }
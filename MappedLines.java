@@ -0,0 +1,263 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/** The lines of a file read through memory maps, for diffing files too
+ * large to decode up front. Opening the file only builds an index of
+ * the offsets at which its lines start; a line is decoded into a String
+ * only when it is asked for with get. Lines can be hashed and compared
+ * straight from the mapped bytes, which is what intern does. Files
+ * larger than SEGMENT bytes are mapped in several segments. Lines read
+ * exactly keep their carriage returns, and an unfinished last line
+ * differs from a finished one with the same text.
+ * @author Jonny W. */
+class MappedLines extends AbstractList<String> {
+
+    /** Largest number of bytes mapped at once. */
+    static final long SEGMENT = 1L << 30;
+
+    /** A file with no lines. */
+    static final MappedLines EMPTY = new MappedLines();
+
+    /** The lines of FILE. */
+    MappedLines(File file) throws IOException {
+        this(file, false);
+    }
+
+    /** The lines of FILE, read exactly if EXACT. */
+    MappedLines(File file, boolean exact) throws IOException {
+        this.exact = exact;
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            long size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT - 1)
+                                                   / SEGMENT)];
+            for (int i = 0; i < segments.length; i += 1) {
+                long start = i * SEGMENT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                          start,
+                                          Math.min(SEGMENT, size - start));
+            }
+            long[] index = new long[1024];
+            int count = 0;
+            long pos = 0;
+            index[count] = 0;
+            for (MappedByteBuffer segment : segments) {
+                for (int i = 0; i < segment.limit(); i += 1, pos += 1) {
+                    if (segment.get(i) == '\n') {
+                        count += 1;
+                        if (count == index.length) {
+                            index = Arrays.copyOf(index, 2 * count);
+                        }
+                        index[count] = pos + 1;
+                    }
+                }
+            }
+            if (index[count] < size) {
+                count += 1;
+                if (count == index.length) {
+                    index = Arrays.copyOf(index, count + 1);
+                }
+                index[count] = size;
+            }
+            starts = Arrays.copyOf(index, count + 1);
+        }
+    }
+
+    /** A file with no lines. */
+    private MappedLines() {
+        exact = false;
+        segments = new MappedByteBuffer[0];
+        starts = new long[] { 0 };
+    }
+
+    @Override
+    public int size() {
+        return starts.length - 1;
+    }
+
+    /** Return line K, without its line terminator. */
+    @Override
+    public String get(int k) {
+        long start = starts[k];
+        byte[] bytes = new byte[(int) (end(k) - start)];
+        for (int i = 0; i < bytes.length; i += 1) {
+            bytes[i] = byteAt(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Return the interned ids of the lines of A and B, as {ids of A,
+     * ids of B}: equal lines get equal ids. Lines are hashed and
+     * compared in place, and the table keeps only a hash and an id per
+     * distinct line. */
+    static int[][] intern(MappedLines a, MappedLines b) {
+        Table table = new Table();
+        return new int[][] { table.intern(a), table.intern(b) };
+    }
+
+    /** Return true iff line K is ended by a newline. */
+    boolean terminated(int k) {
+        return starts[k + 1] > starts[k]
+            && byteAt(starts[k + 1] - 1) == '\n';
+    }
+
+    /** Return the position just after the text of line K, before its
+     * line terminator. */
+    private long end(int k) {
+        long start = starts[k];
+        long end = starts[k + 1];
+        if (end > start && byteAt(end - 1) == '\n') {
+            end -= 1;
+            if (!exact && end > start && byteAt(end - 1) == '\r') {
+                end -= 1;
+            }
+        }
+        return end;
+    }
+
+    /** Return the position just after the bytes of line K that are
+     * hashed and compared: its text, and its newline if read
+     * exactly. */
+    private long keyEnd(int k) {
+        return exact ? starts[k + 1] : end(k);
+    }
+
+    /** Return the byte at position POS of the file. */
+    private byte byteAt(long pos) {
+        return segments[(int) (pos / SEGMENT)].get((int) (pos % SEGMENT));
+    }
+
+    /** Return a 64-bit FNV-1a hash of the text of line K. */
+    private long hash(int k) {
+        long h = 0xcbf29ce484222325L;
+        long pos = starts[k], end = keyEnd(k);
+        while (pos < end) {
+            MappedByteBuffer segment = segments[(int) (pos / SEGMENT)];
+            int i = (int) (pos % SEGMENT);
+            int stop = (int) Math.min(segment.limit(), i + (end - pos));
+            pos += stop - i;
+            for (; i < stop; i += 1) {
+                h = (h ^ (segment.get(i) & 0xff)) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    /** Return true iff line K has the same text as line J of OTHER. */
+    private boolean same(int k, MappedLines other, int j) {
+        long start1 = starts[k], start2 = other.starts[j];
+        long length = keyEnd(k) - start1;
+        if (length != other.keyEnd(j) - start2) {
+            return false;
+        }
+        if (start1 / SEGMENT == (start1 + length) / SEGMENT
+            && start2 / SEGMENT == (start2 + length) / SEGMENT) {
+            return segment(start1, length).equals(
+                       other.segment(start2, length));
+        }
+        for (long i = 0; i < length; i += 1) {
+            if (byteAt(start1 + i) != other.byteAt(start2 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return a view of the LENGTH bytes at position START, which lie
+     * in one segment. */
+    private ByteBuffer segment(long start, long length) {
+        int i = (int) (start % SEGMENT);
+        return segments[(int) (start / SEGMENT)].slice(i, (int) length);
+    }
+
+    /** An open-addressing table from line texts to ids, holding for
+     * each distinct line its hash and the file and line number of its
+     * first occurrence. */
+    private static class Table {
+        /** Return the ids of the lines of LINES, adding new lines. */
+        int[] intern(MappedLines lines) {
+            int[] result = new int[lines.size()];
+            for (int k = 0; k < result.length; k += 1) {
+                result[k] = intern(lines, k);
+            }
+            return result;
+        }
+
+        /** Return the id of line K of LINES, adding it if new. */
+        private int intern(MappedLines lines, int k) {
+            long h = lines.hash(k);
+            int mask = slots.length - 1;
+            int slot = (int) (h ^ (h >>> 32)) & mask;
+            while (slots[slot] != 0) {
+                int id = slots[slot] - 1;
+                if (hashes[slot] == h
+                    && lines.same(k, owners[id], lineNumbers[id])) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int id = count;
+            count += 1;
+            if (id == owners.length) {
+                owners = Arrays.copyOf(owners, 2 * id);
+                lineNumbers = Arrays.copyOf(lineNumbers, 2 * id);
+            }
+            owners[id] = lines;
+            lineNumbers[id] = k;
+            hashes[slot] = h;
+            slots[slot] = id + 1;
+            if (2 * count > slots.length) {
+                grow();
+            }
+            return id;
+        }
+
+        /** Double the number of slots. */
+        private void grow() {
+            long[] oldHashes = hashes;
+            int[] oldSlots = slots;
+            hashes = new long[2 * oldSlots.length];
+            slots = new int[2 * oldSlots.length];
+            int mask = slots.length - 1;
+            for (int i = 0; i < oldSlots.length; i += 1) {
+                if (oldSlots[i] != 0) {
+                    long h = oldHashes[i];
+                    int slot = (int) (h ^ (h >>> 32)) & mask;
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    hashes[slot] = h;
+                    slots[slot] = oldSlots[i];
+                }
+            }
+        }
+
+        /** Hash of the line in each slot. */
+        private long[] hashes = new long[1024];
+        /** Id plus one of the line in each slot, 0 for an empty slot. */
+        private int[] slots = new int[1024];
+        /** File of the first occurrence of each line, by id. */
+        private MappedLines[] owners = new MappedLines[512];
+        /** Line number of the first occurrence of each line, by id. */
+        private int[] lineNumbers = new int[512];
+        /** Number of distinct lines. */
+        private int count;
+    }
+
+    /** True iff the lines are read exactly. */
+    private final boolean exact;
+
+    /** The mapped segments of the file, in order. */
+    private final MappedByteBuffer[] segments;
+
+    /** The position at which each line starts, followed by the size of
+     * the file. */
+    private final long[] starts;
+}
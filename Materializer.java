@@ -0,0 +1,326 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Writes blobs out to the working directory. Writes and deletions
+ * are queued and then carried out together by run: every file is
+ * first copied from the blob store into a temporary file next to it
+ * by a bounded pool of threads, and only once all copies succeeded
+ * are the temporary files renamed over their targets. The files
+ * replaced or deleted are first moved aside into a backup folder, so
+ * that if anything fails, the changes already made are undone and the
+ * working directory is left as it was; the backups are deleted once
+ * every change is made. Only a crash partway through run can leave a
+ * change half made, with the files it replaced still in the backup
+ * folder.
+ * @author Jonny W. */
+class Materializer {
+
+    /** Number of writer threads per processor. Writing is bound by
+     * I/O rather than by the processors, so more threads than
+     * processors keep the disks busy. */
+    static final int THREADS_PER_CPU = 2;
+
+    /** Suffix of the temporary file a target is copied into. */
+    private static final String TEMP_SUFFIX = ".gitlet-tmp";
+
+    /** A materializer writing the blobs of BLOBS and moving the files
+     * it replaces into BACKUPFOLDER until it is done. */
+    Materializer(BlobStore blobs, File backupFolder) {
+        store = blobs;
+        backupDir = backupFolder;
+    }
+
+    /** Queue writing the blob ID to the file NAME. */
+    void write(String name, String id) {
+        deletes.remove(name);
+        writes.put(name, id);
+    }
+
+    /** Queue deleting the file NAME. */
+    void delete(String name) {
+        writes.remove(name);
+        deletes.add(name);
+    }
+
+    /** Drop everything queued. */
+    void clear() {
+        writes.clear();
+        deletes.clear();
+        backups = 0;
+    }
+
+    /** Carry out everything queued, writing the files in parallel.
+     * Either every queued change is made or, if some file cannot be
+     * written or moved, the changes made so far are undone and an
+     * error names what failed. Deletions come first, so that a file
+     * may be replaced by a directory of the same name; a write whose
+     * target is an empty directory, as one left by the deletions,
+     * replaces it. */
+    void run() {
+        if (writes.isEmpty() && deletes.isEmpty()) {
+            return;
+        }
+        ArrayList<Change> done = new ArrayList<Change>();
+        ArrayList<File> created = new ArrayList<File>();
+        LinkedHashMap<String, Path> staged = new LinkedHashMap<String, Path>();
+        try {
+            for (String name : deletes) {
+                Change c = new Change(Path.of(name), false);
+                done.add(c);
+                c.backup = setAside(c.target);
+                removeEmptyParents(name);
+            }
+            makeDirectories(created);
+            staged = stage();
+            for (var each : staged.entrySet()) {
+                Change c = new Change(Path.of(each.getKey()), true);
+                done.add(c);
+                if (Files.isDirectory(c.target, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.delete(c.target);
+                    c.wasDirectory = true;
+                }
+                c.backup = setAside(c.target);
+                Files.move(each.getValue(), c.target,
+                           StandardCopyOption.ATOMIC_MOVE);
+                c.written = true;
+            }
+        } catch (IOException excp) {
+            for (Path temp : staged.values()) {
+                temp.toFile().delete();
+            }
+            throw Utils.error("Cannot update working directory: %s%s",
+                              excp.getMessage(), undo(done, created));
+        } finally {
+            clear();
+        }
+        for (Change c : done) {
+            if (c.backup != null) {
+                c.backup.toFile().delete();
+            }
+        }
+    }
+
+    /** Move the file TARGET, if there is one, into the backup folder
+     * and return where it went, or return null. */
+    private Path setAside(Path target) throws IOException {
+        if (!Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS)
+            && !Files.isSymbolicLink(target)) {
+            return null;
+        }
+        if (backups == 0) {
+            backupDir.mkdirs();
+            runName = "run-" + System.currentTimeMillis() + "-";
+        }
+        Path backup = backupDir.toPath().resolve(runName + backups);
+        backups += 1;
+        Files.move(target, backup, StandardCopyOption.ATOMIC_MOVE);
+        return backup;
+    }
+
+    /** Undo the changes DONE and remove the directories CREATED for
+     * them: first the writes, latest first, deleting the files written
+     * and putting back what they replaced; then the directories; then
+     * the deletions, moving the files set aside back. Return a note
+     * saying that no file was changed if everything was restored, and
+     * otherwise naming what was not. */
+    private static String undo(List<Change> done, List<File> created) {
+        TreeSet<String> lost = new TreeSet<String>();
+        for (int i = done.size() - 1; i >= 0; i -= 1) {
+            Change c = done.get(i);
+            if (!c.write) {
+                continue;
+            }
+            try {
+                if (c.written) {
+                    Files.deleteIfExists(c.target);
+                }
+                if (c.wasDirectory) {
+                    Files.createDirectory(c.target);
+                }
+                if (c.backup != null) {
+                    Files.move(c.backup, c.target,
+                               StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException excp) {
+                lost.add(c.target.toString());
+            }
+        }
+        for (int i = created.size() - 1; i >= 0; i -= 1) {
+            created.get(i).delete();
+        }
+        for (int i = done.size() - 1; i >= 0; i -= 1) {
+            Change c = done.get(i);
+            if (c.write || c.backup == null) {
+                continue;
+            }
+            try {
+                Path parent = c.target.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                Files.move(c.backup, c.target,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException excp) {
+                lost.add(c.target.toString());
+            }
+        }
+        if (lost.isEmpty()) {
+            return "; no files were changed.";
+        }
+        return "; could not restore " + String.join(", ", lost) + ".";
+    }
+
+    /** Create the directory of each queued file, once per directory,
+     * adding each directory made to CREATED after its parent. */
+    private void makeDirectories(List<File> created) {
+        HashSet<File> dirs = new HashSet<File>();
+        for (String name : writes.keySet()) {
+            File dir = new File(name).getAbsoluteFile().getParentFile();
+            if (dir != null && dirs.add(dir)) {
+                ArrayList<File> missing = new ArrayList<File>();
+                for (File d = dir; d != null && !d.exists();
+                     d = d.getParentFile()) {
+                    missing.add(0, d);
+                }
+                for (File d : missing) {
+                    if (d.mkdir()) {
+                        created.add(d);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Remove the directories above the deleted file NAME that are
+     * left empty, up to the working directory. */
+    private static void removeEmptyParents(String name) {
+        File dir = new File(name).getParentFile();
+        while (dir != null) {
+            String[] left = dir.list();
+            if (left == null || left.length > 0 || !dir.delete()) {
+                return;
+            }
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** Copy every queued blob into its temporary file and return the
+     * temporary files by target name. If any copy fails, delete the
+     * temporary files written and throw an IOException naming the
+     * targets that failed. */
+    private LinkedHashMap<String, Path> stage() throws IOException {
+        int threads = Math.min(writes.size(), THREADS_PER_CPU
+                * Runtime.getRuntime().availableProcessors());
+        LinkedHashMap<String, Future<Path>> tasks =
+            new LinkedHashMap<String, Future<Path>>();
+        LinkedHashMap<String, Path> staged = new LinkedHashMap<String, Path>();
+        TreeSet<String> failed = new TreeSet<String>();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(threads, 1));
+        try {
+            for (var each : writes.entrySet()) {
+                String name = each.getKey();
+                String id = each.getValue();
+                tasks.put(name, pool.submit(() -> copy(name, id)));
+            }
+            for (var each : tasks.entrySet()) {
+                try {
+                    staged.put(each.getKey(), each.getValue().get());
+                } catch (ExecutionException excp) {
+                    failed.add(each.getKey());
+                }
+            }
+        } catch (InterruptedException excp) {
+            failed.addAll(writes.keySet());
+        } finally {
+            pool.shutdownNow();
+        }
+        if (!failed.isEmpty()) {
+            for (Path temp : staged.values()) {
+                temp.toFile().delete();
+            }
+            throw new IOException("cannot write "
+                                  + String.join(", ", failed));
+        }
+        return staged;
+    }
+
+    /** Copy the blob ID into a new temporary file next to the file
+     * NAME and return the temporary file. */
+    private Path copy(String name, String id) throws IOException {
+        Path target = Path.of(name).toAbsolutePath();
+        Path temp = target.resolveSibling("." + target.getFileName()
+                                          + TEMP_SUFFIX);
+        try (FileChannel out = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            store.copyTo(id, out);
+        } catch (IOException | RuntimeException excp) {
+            Files.deleteIfExists(temp);
+            throw excp;
+        }
+        return temp;
+    }
+
+    /** One change made by run: writing or deleting TARGET, whose old
+     * file, if any, was moved to BACKUP. */
+    private static class Change {
+        /** A change writing TARGET if WRITE, and deleting it
+         * otherwise. */
+        Change(Path target, boolean write) {
+            this.target = target;
+            this.write = write;
+        }
+
+        /** The file changed. */
+        private final Path target;
+        /** True for a write, false for a deletion. */
+        private final boolean write;
+        /** Where the old TARGET was moved, or null if there was none. */
+        private Path backup;
+        /** True if TARGET was an empty directory, removed to make way
+         * for the file written. */
+        private boolean wasDirectory;
+        /** True once the new TARGET is in place. */
+        private boolean written;
+    }
+
+    /** The blob store read from. */
+    private final BlobStore store;
+
+    /** The folder replaced and deleted files are kept in until run
+     * is done. */
+    private final File backupDir;
+
+    /** Number of files set aside by the current run. */
+    private int backups;
+
+    /** Prefix of the names of the files set aside by the current
+     * run, so that they never clash with those a crashed run left. */
+    private String runName;
+
+    /** Queued writes, mapping file names to blob ids. */
+    private final LinkedHashMap<String, String> writes =
+        new LinkedHashMap<String, String>();
+
+    /** Names of the files queued for deletion. */
+    private final LinkedHashSet<String> deletes = new LinkedHashSet<String>();
+}
@@ -0,0 +1,139 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+
+/** An inverted index from commit log messages to commit ids, kept in
+ * its own folder. Every key, either a whole message or one token of a
+ * message, has a posting file named by the SHA-1 of the key, listing
+ * the ids of the commits whose message has that key, one per line, in
+ * the order they were committed. Looking up a message therefore reads
+ * one small file instead of every commit.
+ * @author Jonny W. */
+class MessageIndex {
+
+    /** The index kept in the directory INDEXFOLDER. */
+    MessageIndex(File indexFolder) {
+        folder = indexFolder;
+    }
+
+    /** Return true iff the index folder exists. */
+    boolean exists() {
+        return folder.isDirectory();
+    }
+
+    /** Record that the commit ID has the log message MESSAGE. It is
+     * written out by the next flush. */
+    void add(String id, String message) {
+        if (message == null) {
+            return;
+        }
+        LinkedHashSet<String> keys = new LinkedHashSet<String>();
+        keys.add(messageKey(message));
+        for (String token : tokens(message)) {
+            keys.add(tokenKey(token));
+        }
+        for (String key : keys) {
+            pending.computeIfAbsent(Utils.sha1(key),
+                                    k -> new StringBuilder())
+                .append(id).append('\n');
+        }
+    }
+
+    /** Return the ids of the commits whose log message is exactly
+     * MESSAGE. */
+    List<String> find(String message) {
+        return postings(Utils.sha1(messageKey(message)));
+    }
+
+    /** Return the ids of the commits whose log message contains every
+     * token of QUERY, ignoring case. */
+    List<String> findTokens(String query) {
+        List<String> result = null;
+        for (String token : tokens(query)) {
+            List<String> ids = postings(Utils.sha1(tokenKey(token)));
+            if (result == null) {
+                result = ids;
+            } else {
+                result.retainAll(new LinkedHashSet<String>(ids));
+            }
+        }
+        return result == null ? new ArrayList<String>() : result;
+    }
+
+    /** Append the postings added since the last flush. */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        folder.mkdirs();
+        for (var each : pending.entrySet()) {
+            File f = new File(folder, each.getKey());
+            try (FileOutputStream out = new FileOutputStream(f, true)) {
+                out.write(each.getValue().toString()
+                          .getBytes(StandardCharsets.UTF_8));
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write message index.");
+            }
+        }
+        pending.clear();
+    }
+
+    /** Return the distinct lower-case words of MESSAGE, which are its
+     * maximal runs of letters and digits. */
+    static LinkedHashSet<String> tokens(String message) {
+        LinkedHashSet<String> result = new LinkedHashSet<String>();
+        for (String word : message.toLowerCase(Locale.ROOT)
+                 .split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids in the posting file NAME, including those not
+     * flushed yet, in commit order. */
+    private List<String> postings(String name) {
+        ArrayList<String> result = new ArrayList<String>();
+        File f = new File(folder, name);
+        if (f.isFile()) {
+            for (String id : Utils.readContentsAsString(f).split("\n")) {
+                if (!id.isEmpty()) {
+                    result.add(id);
+                }
+            }
+        }
+        StringBuilder more = pending.get(name);
+        if (more != null) {
+            for (String id : more.toString().split("\n")) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    /** Return the key of the whole message MESSAGE. */
+    private static String messageKey(String message) {
+        return "message\0" + message;
+    }
+
+    /** Return the key of the token TOKEN. */
+    private static String tokenKey(String token) {
+        return "token\0" + token;
+    }
+
+    /** The folder of posting files. */
+    private final File folder;
+
+    /** Postings added since the last flush, by posting file name. */
+    private final LinkedHashMap<String, StringBuilder> pending =
+        new LinkedHashMap<String, StringBuilder>();
+}
@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** The 20-byte SHA-1 id of a commit, tree or blob, held as five ints
+ * instead of a 40-character String, so that ids compare and hash
+ * without touching any characters. Ids convert to and from their
+ * hexadecimal names through lookup tables.
+ * @author Jonny W. */
+final class ObjectId implements Comparable<ObjectId> {
+
+    /** Number of bytes of an id. */
+    static final int BYTES = 20;
+
+    /** Number of characters of the hexadecimal name of an id. */
+    static final int HEX_LENGTH = 2 * BYTES;
+
+    /** The hexadecimal digits, by value. */
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    /** The value of each hexadecimal digit, in either case, by
+     * character, and -1 for every other character below 128. */
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < DIGITS.length; i += 1) {
+            VALUES[DIGITS[i]] = (byte) i;
+            VALUES[Character.toUpperCase(DIGITS[i])] = (byte) i;
+        }
+    }
+
+    /** The id whose bytes, most significant first, are W0 to W4. */
+    private ObjectId(int w0, int w1, int w2, int w3, int w4) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        this.w4 = w4;
+    }
+
+    /** Return the id of the BYTES bytes at OFFSET in RAW. */
+    static ObjectId fromRaw(byte[] raw, int offset) {
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        return fromRaw(buf, offset);
+    }
+
+    /** Return the id of the BYTES bytes at OFFSET in BUF. */
+    static ObjectId fromRaw(ByteBuffer buf, int offset) {
+        return new ObjectId(buf.getInt(offset), buf.getInt(offset + 4),
+                            buf.getInt(offset + 8), buf.getInt(offset + 12),
+                            buf.getInt(offset + 16));
+    }
+
+    /** Return the id named by the hexadecimal string NAME. */
+    static ObjectId fromHex(String name) {
+        ObjectId result = parse(name);
+        if (result == null) {
+            throw new IllegalArgumentException("not an object id: " + name);
+        }
+        return result;
+    }
+
+    /** Return the id named by the hexadecimal string NAME, whose digits
+     * may be in either case, or null if NAME does not name one. */
+    static ObjectId parse(String name) {
+        if (name == null || name.length() != HEX_LENGTH) {
+            return null;
+        }
+        int[] words = new int[5];
+        for (int i = 0; i < HEX_LENGTH; i += 1) {
+            char c = name.charAt(i);
+            int v = c < VALUES.length ? VALUES[c] : -1;
+            if (v < 0) {
+                return null;
+            }
+            words[i / 8] = (words[i / 8] << 4) | v;
+        }
+        return new ObjectId(words[0], words[1], words[2], words[3],
+                            words[4]);
+    }
+
+    /** Return the hexadecimal name of the bytes RAW, such as a
+     * digest. */
+    static String hex(byte[] raw) {
+        char[] result = new char[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            result[2 * i] = DIGITS[(raw[i] >> 4) & 0xf];
+            result[2 * i + 1] = DIGITS[raw[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Return the hexadecimal name of the BYTES bytes at OFFSET in
+     * BUF. */
+    static String hex(ByteBuffer buf, int offset) {
+        char[] result = new char[HEX_LENGTH];
+        for (int i = 0; i < BYTES; i += 1) {
+            int b = buf.get(offset + i);
+            result[2 * i] = DIGITS[(b >> 4) & 0xf];
+            result[2 * i + 1] = DIGITS[b & 0xf];
+        }
+        return new String(result);
+    }
+
+    /** Return word K, from 0 to 4, of this id. */
+    int word(int k) {
+        switch (k) {
+        case 0:
+            return w0;
+        case 1:
+            return w1;
+        case 2:
+            return w2;
+        case 3:
+            return w3;
+        default:
+            return w4;
+        }
+    }
+
+    /** Write the BYTES bytes of this id to BUF at its position. */
+    void copyRawTo(ByteBuffer buf) {
+        buf.putInt(w0).putInt(w1).putInt(w2).putInt(w3).putInt(w4);
+    }
+
+    /** Return the bytes of this id. */
+    byte[] toRaw() {
+        ByteBuffer result = ByteBuffer.allocate(BYTES);
+        copyRawTo(result);
+        return result.array();
+    }
+
+    /** Return the hexadecimal name of this id, in lower case. */
+    String name() {
+        return hex(toRaw());
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ObjectId)) {
+            return false;
+        }
+        ObjectId other = (ObjectId) obj;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2
+            && w3 == other.w3 && w4 == other.w4;
+    }
+
+    /** Return a hash code, which is the first word: the bytes of a
+     * SHA-1 are already evenly spread. */
+    @Override
+    public int hashCode() {
+        return w0;
+    }
+
+    @Override
+    public int compareTo(ObjectId other) {
+        for (int k = 0; k < 5; k += 1) {
+            int c = Integer.compareUnsigned(word(k), other.word(k));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** The bytes of this id, four at a time, most significant
+     * first. */
+    private final int w0, w1, w2, w3, w4;
+}
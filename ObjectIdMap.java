@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A map from object ids to non-negative longs, such as offsets or
+ * positions, kept in flat arrays with open addressing and linear
+ * probing. Keys are stored as the five words of their ids rather than
+ * as ObjectIds or Strings, and values are not boxed, so a map of many
+ * ids costs a few dozen bytes per entry. Ids read from a buffer can
+ * be looked up and added without making an ObjectId at all.
+ * @author Jonny W. */
+class ObjectIdMap {
+
+    /** The value returned for ids that are not in the map. */
+    static final long MISSING = -1;
+
+    /** Number of words of a key. */
+    private static final int WORDS = ObjectId.BYTES / 4;
+
+    /** An empty map. */
+    ObjectIdMap() {
+        this(16);
+    }
+
+    /** An empty map with room for EXPECTED entries before it grows. */
+    ObjectIdMap(int expected) {
+        int slots = 16;
+        while (slots < 2 * expected) {
+            slots *= 2;
+        }
+        allocate(slots);
+    }
+
+    /** Return the number of entries. */
+    int size() {
+        return size;
+    }
+
+    /** Return the value of ID, or MISSING. */
+    long get(ObjectId id) {
+        int slot = find(id.word(0), id.word(1), id.word(2), id.word(3),
+                        id.word(4));
+        return used[slot] ? values[slot] : MISSING;
+    }
+
+    /** Return the value of the id whose bytes are at OFFSET in BUF, or
+     * MISSING. */
+    long get(ByteBuffer buf, int offset) {
+        int slot = find(buf.getInt(offset), buf.getInt(offset + 4),
+                        buf.getInt(offset + 8), buf.getInt(offset + 12),
+                        buf.getInt(offset + 16));
+        return used[slot] ? values[slot] : MISSING;
+    }
+
+    /** Return true iff ID is in the map. */
+    boolean containsKey(ObjectId id) {
+        return get(id) != MISSING;
+    }
+
+    /** Map ID to VALUE, which is not negative. */
+    void put(ObjectId id, long value) {
+        put(id.word(0), id.word(1), id.word(2), id.word(3), id.word(4),
+            value);
+    }
+
+    /** Map the id whose bytes are at OFFSET in BUF to VALUE, which is
+     * not negative. */
+    void put(ByteBuffer buf, int offset, long value) {
+        put(buf.getInt(offset), buf.getInt(offset + 4),
+            buf.getInt(offset + 8), buf.getInt(offset + 12),
+            buf.getInt(offset + 16), value);
+    }
+
+    /** Return the ids in the map, in no particular order. */
+    List<ObjectId> keys() {
+        ArrayList<ObjectId> result = new ArrayList<ObjectId>(size);
+        ByteBuffer raw = ByteBuffer.allocate(ObjectId.BYTES);
+        for (int slot = 0; slot < used.length; slot += 1) {
+            if (used[slot]) {
+                raw.clear();
+                for (int k = 0; k < WORDS; k += 1) {
+                    raw.putInt(keys[WORDS * slot + k]);
+                }
+                result.add(ObjectId.fromRaw(raw, 0));
+            }
+        }
+        return result;
+    }
+
+    /** Map the id with words W0 to W4 to VALUE. */
+    private void put(int w0, int w1, int w2, int w3, int w4, long value) {
+        int slot = find(w0, w1, w2, w3, w4);
+        if (!used[slot]) {
+            used[slot] = true;
+            int base = WORDS * slot;
+            keys[base] = w0;
+            keys[base + 1] = w1;
+            keys[base + 2] = w2;
+            keys[base + 3] = w3;
+            keys[base + 4] = w4;
+            size += 1;
+        }
+        values[slot] = value;
+        if (2 * size > used.length) {
+            grow();
+        }
+    }
+
+    /** Return the slot holding the id with words W0 to W4, or the
+     * empty slot where it would go. */
+    private int find(int w0, int w1, int w2, int w3, int w4) {
+        int mask = used.length - 1;
+        int slot = (w0 ^ (w0 >>> 16)) & mask;
+        while (used[slot]) {
+            int base = WORDS * slot;
+            if (keys[base] == w0 && keys[base + 1] == w1
+                && keys[base + 2] == w2 && keys[base + 3] == w3
+                && keys[base + 4] == w4) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Double the number of slots. */
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(2 * oldUsed.length);
+        size = 0;
+        for (int slot = 0; slot < oldUsed.length; slot += 1) {
+            if (oldUsed[slot]) {
+                int base = WORDS * slot;
+                put(oldKeys[base], oldKeys[base + 1], oldKeys[base + 2],
+                    oldKeys[base + 3], oldKeys[base + 4], oldValues[slot]);
+            }
+        }
+    }
+
+    /** Make SLOTS empty slots. */
+    private void allocate(int slots) {
+        keys = new int[WORDS * slots];
+        values = new long[slots];
+        used = new boolean[slots];
+    }
+
+    /** The words of the key in each slot. */
+    private int[] keys;
+
+    /** The value in each slot. */
+    private long[] values;
+
+    /** Whether each slot holds an entry. */
+    private boolean[] used;
+
+    /** Number of entries. */
+    private int size;
+}
@@ -0,0 +1,400 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/** A pack file holding many blobs at once. Related versions of a
+ * file are stored as line-level deltas (computed with Diff) against
+ * another version in the same pack, and every entry is deflated.
+ * Each pack NAME.pack comes with an index NAME.idx mapping blob
+ * ids to their offsets in the pack.
+ * @author Jonny W. */
+class Pack {
+
+    /** Longest chain of deltas that has to be applied to rebuild
+     * any one blob. */
+    static final int MAX_DEPTH = 10;
+
+    /** Number of previous versions of the same file tried as the
+     * base of a delta. */
+    static final int WINDOW = 4;
+
+    /** Largest product of line counts that is worth diffing. Larger
+     * pairs are diffed in linear space, but dissimilar ones would take
+     * time close to that product. */
+    static final long MAX_DIFF_CELLS = 4_000_000L;
+
+    /** Magic number at the start of every index file. */
+    private static final int IDX_MAGIC = 0x47504958;
+
+    /** Version of the pack and index format. */
+    private static final int VERSION = 1;
+
+    /** Entry type of a blob stored whole. */
+    private static final byte FULL = 0;
+
+    /** Entry type of a blob stored as a delta against a base. */
+    private static final byte DELTA = 1;
+
+    /** Delta op copying a range of lines from the base. */
+    private static final byte COPY = 0;
+
+    /** Delta op inserting literal bytes. */
+    private static final byte INSERT = 1;
+
+    /** The pack whose data file is PACKFILE, reading its index from
+     * the matching .idx file. */
+    Pack(File packFile) {
+        file = packFile;
+        File idx = indexFile(packFile);
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(Utils.readContents(idx)))) {
+            if (in.readInt() != IDX_MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Bad pack index %s.", idx.getName());
+            }
+            int count = in.readInt();
+            offsets = new ObjectIdMap(count);
+            for (int i = 0; i < count; i += 1) {
+                offsets.put(ObjectId.fromHex(in.readUTF()), in.readLong());
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw Utils.error("Bad pack index %s.", idx.getName());
+        }
+    }
+
+    /** Return true iff this pack holds the blob ID. */
+    boolean contains(String id) {
+        return offset(id) != ObjectIdMap.MISSING;
+    }
+
+    /** Return the ids of all blobs in this pack. */
+    Collection<String> ids() {
+        ArrayList<String> result = new ArrayList<String>(offsets.size());
+        for (ObjectId id : offsets.keys()) {
+            result.add(id.name());
+        }
+        return result;
+    }
+
+    /** Return the data file of this pack. */
+    File getFile() {
+        return file;
+    }
+
+    /** Return the contents of the blob ID, or null if it is not in
+     * this pack. */
+    byte[] get(String id) {
+        long offset = offset(id);
+        if (offset == ObjectIdMap.MISSING) {
+            return null;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return read(in, offset, 0);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack %s.", file.getName());
+        }
+    }
+
+    /** Read the entry at OFFSET of the open pack IN, resolving its
+     * delta chain. DEPTH is the number of deltas already followed. */
+    private byte[] read(RandomAccessFile in, long offset, int depth)
+        throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw Utils.error("Delta chain too long in %s.", file.getName());
+        }
+        in.seek(offset);
+        byte type = in.readByte();
+        String base = type == DELTA ? in.readUTF() : null;
+        int rawLength = in.readInt();
+        byte[] packed = new byte[in.readInt()];
+        in.readFully(packed);
+        byte[] data = inflate(packed, rawLength);
+        if (type == FULL) {
+            return data;
+        }
+        long baseOffset = offset(base);
+        if (baseOffset == ObjectIdMap.MISSING) {
+            throw Utils.error("Missing delta base %s.", base);
+        }
+        return applyDelta(read(in, baseOffset, depth + 1), data);
+    }
+
+    /** Return the offset of the entry of the blob ID in the pack, or
+     * ObjectIdMap.MISSING if it is not in this pack. */
+    private long offset(String id) {
+        ObjectId key = ObjectId.parse(id);
+        return key == null ? ObjectIdMap.MISSING : offsets.get(key);
+    }
+
+    /** Write a new pack named after its contents into FOLDER and
+     * return it. Each of GROUPS is a collection of blob ids that are
+     * versions of the same file; CONTENTS returns the contents of a
+     * blob id. Within a group, the larger versions are used as delta
+     * bases for the smaller ones. Entries are streamed into a
+     * temporary file as they are made, so only one group is held in
+     * memory at a time; the index is written next, and the pack is
+     * renamed into place last. */
+    static Pack write(File folder, Collection<? extends Collection<String>>
+                      groups, Function<String, byte[]> contents) {
+        HashMap<String, Long> written = new HashMap<String, Long>();
+        HashMap<String, Integer> depths = new HashMap<String, Integer>();
+        File temp = null;
+        try {
+            temp = File.createTempFile("pack-", ".tmp", folder);
+            try (OutputStream out = new BufferedOutputStream(
+                     new FileOutputStream(temp))) {
+                long offset = 0;
+                for (Collection<String> group : groups) {
+                    ArrayList<String> ids = new ArrayList<String>();
+                    HashMap<String, byte[]> data =
+                        new HashMap<String, byte[]>();
+                    for (String id : group) {
+                        if (!written.containsKey(id)
+                            && !data.containsKey(id)) {
+                            ids.add(id);
+                            data.put(id, contents.apply(id));
+                        }
+                    }
+                    ids.sort((a, b) -> data.get(b).length
+                             - data.get(a).length);
+                    for (int i = 0; i < ids.size(); i += 1) {
+                        String id = ids.get(i);
+                        byte[] target = data.get(id);
+                        String base = null;
+                        byte[] best = null;
+                        for (int j = Math.max(0, i - WINDOW); j < i;
+                             j += 1) {
+                            String cand = ids.get(j);
+                            if (depths.get(cand) >= MAX_DEPTH) {
+                                continue;
+                            }
+                            byte[] delta = delta(data.get(cand), target);
+                            if (delta != null && delta.length < target.length
+                                && (best == null
+                                    || delta.length < best.length)) {
+                                base = cand;
+                                best = delta;
+                            }
+                        }
+                        byte[] entry;
+                        if (base == null) {
+                            depths.put(id, 0);
+                            entry = entry(FULL, null, target);
+                        } else {
+                            depths.put(id, depths.get(base) + 1);
+                            entry = entry(DELTA, base, best);
+                        }
+                        written.put(id, offset);
+                        out.write(entry);
+                        offset += entry.length;
+                    }
+                }
+            }
+            ArrayList<String> names = new ArrayList<String>(written.keySet());
+            names.sort(null);
+            String name = "pack-" + Utils.sha1(String.join("", names));
+            File packFile = new File(folder, name + ".pack");
+            ByteArrayOutputStream idxBytes = new ByteArrayOutputStream();
+            try (DataOutputStream idx = new DataOutputStream(idxBytes)) {
+                idx.writeInt(IDX_MAGIC);
+                idx.writeInt(VERSION);
+                idx.writeInt(names.size());
+                for (String id : names) {
+                    idx.writeUTF(id);
+                    idx.writeLong(written.get(id));
+                }
+            }
+            Utils.writeContents(indexFile(packFile), idxBytes.toByteArray());
+            Files.move(temp.toPath(), packFile.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+            return new Pack(packFile);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack.");
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Return the entry of TYPE with delta base BASE (null for FULL
+     * entries) and uncompressed DATA. */
+    private static byte[] entry(byte type, String base, byte[] data)
+        throws IOException {
+        byte[] packed = deflate(data);
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream(packed.length + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            if (base != null) {
+                out.writeUTF(base);
+            }
+            out.writeInt(data.length);
+            out.writeInt(packed.length);
+            out.write(packed);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the line-level delta that turns BASE into TARGET, or
+     * null if the two are too large to diff. */
+    static byte[] delta(byte[] base, byte[] target) {
+        List<String> baseLines = lines(base);
+        List<String> targetLines = lines(target);
+        if ((long) baseLines.size() * targetLines.size() > MAX_DIFF_CELLS) {
+            return null;
+        }
+        Diff diff = new Diff();
+        diff.setSequences(baseLines, targetLines);
+        int[] edits = diff.diffs();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            int pos = 0;
+            for (int k = 0; k < edits.length; k += 4) {
+                if (edits[k] > pos) {
+                    out.writeByte(COPY);
+                    out.writeInt(pos);
+                    out.writeInt(edits[k] - pos);
+                }
+                if (edits[k + 3] > 0) {
+                    StringBuilder inserted = new StringBuilder();
+                    for (int i = 0; i < edits[k + 3]; i += 1) {
+                        inserted.append(targetLines.get(edits[k + 2] + i));
+                    }
+                    byte[] literal = inserted.toString()
+                        .getBytes(StandardCharsets.ISO_8859_1);
+                    out.writeByte(INSERT);
+                    out.writeInt(literal.length);
+                    out.write(literal);
+                }
+                pos = edits[k] + edits[k + 1];
+            }
+            if (pos < baseLines.size()) {
+                out.writeByte(COPY);
+                out.writeInt(pos);
+                out.writeInt(baseLines.size() - pos);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Internal error computing delta.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] applyDelta(byte[] base, byte[] delta) {
+        List<String> baseLines = lines(base);
+        StringBuilder result = new StringBuilder();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(delta))) {
+            while (in.available() > 0) {
+                if (in.readByte() == COPY) {
+                    int start = in.readInt();
+                    int count = in.readInt();
+                    for (int i = start; i < start + count; i += 1) {
+                        result.append(baseLines.get(i));
+                    }
+                } else {
+                    byte[] literal = new byte[in.readInt()];
+                    in.readFully(literal);
+                    result.append(new String(literal,
+                                             StandardCharsets.ISO_8859_1));
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException excp) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Return CONTENTS split into lines, each keeping its line
+     * terminator. Bytes are mapped one-to-one onto chars so that
+     * any contents, text or not, round-trip exactly. */
+    static List<String> lines(byte[] contents) {
+        String text = new String(contents, StandardCharsets.ISO_8859_1);
+        ArrayList<String> result = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) == '\n') {
+                result.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            result.add(text.substring(start));
+        }
+        return result;
+    }
+
+    /** Return DATA compressed with Deflater. */
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Return PACKED decompressed, given its uncompressed length
+     * LENGTH. A truncated or corrupt entry, which ends before LENGTH
+     * bytes are inflated, is an error. */
+    private static byte[] inflate(byte[] packed, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(packed);
+        byte[] result = new byte[length];
+        try {
+            int done = 0;
+            while (done < length) {
+                int n = inflater.inflate(result, done, length - done);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()
+                               || inflater.needsDictionary())) {
+                    throw Utils.error("Corrupt pack entry.");
+                }
+                done += n;
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt pack entry.");
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    /** Return the index file belonging to the pack PACKFILE. */
+    static File indexFile(File packFile) {
+        String name = packFile.getName();
+        return new File(packFile.getParentFile(),
+                        name.substring(0, name.length() - ".pack".length())
+                        + ".idx");
+    }
+
+    /** The data file of this pack. */
+    private final File file;
+
+    /** Offsets of each blob entry in FILE, keyed by blob id. */
+    private final ObjectIdMap offsets;
+}
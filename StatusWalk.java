@@ -0,0 +1,71 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Map;
+
+/** Finds the files of a working tree that differ from the tracked
+ * ones, as status and every command reading the working tree need:
+ * walks the tree, skipping the repository folder, and takes the blob
+ * id of each untracked file through an Index; then takes the id of
+ * each tracked file the same way and compares it with the tracked id.
+ * With an up-to-date index, files are only stat'ed, not read.
+ * @author Jonny W. */
+class StatusWalk {
+
+    /** Receives what a walk finds. */
+    interface Listener {
+        /** The file NAME, with blob id ID, is not tracked. */
+        void untracked(String name, String id);
+
+        /** The tracked file NAME now has blob id ID, or is missing, or
+         * no longer a file, if ID is null. */
+        void modified(String name, String id);
+    }
+
+    /** Name of the repository folder, which is never walked. */
+    private static final String REPOSITORY = ".gitlet";
+
+    /** Report to LISTENER the untracked, modified and missing files of
+     * the working tree ROOT, whose tracked files are the keys of
+     * TRACKED, mapped to their blob ids. Ids are taken through
+     * INDEX. */
+    static void walk(File root, Map<String, String> tracked, Index index,
+                     Listener listener) {
+        untracked(root, "", tracked, index, listener);
+        for (var each : tracked.entrySet()) {
+            String name = each.getKey();
+            File f = new File(root, name);
+            if (!f.isFile()) {
+                listener.modified(name, null);
+            } else {
+                String id = index.hash(f, name);
+                if (!id.equals(each.getValue())) {
+                    listener.modified(name, id);
+                }
+            }
+        }
+    }
+
+    /** Report to LISTENER the untracked files below the directory DIR,
+     * whose path relative to the working tree is PREFIX, as for
+     * walk(DIR, TRACKED, INDEX, LISTENER). */
+    private static void untracked(File dir, String prefix,
+                                  Map<String, String> tracked, Index index,
+                                  Listener listener) {
+        File[] filesList = dir.listFiles();
+        if (filesList == null) {
+            return;
+        }
+        for (File f : filesList) {
+            String name = prefix + f.getName();
+            if (f.isDirectory()) {
+                if (!f.getName().equals(REPOSITORY)) {
+                    untracked(f, name + Tree.SEPARATOR, tracked, index,
+                              listener);
+                }
+            } else if (f.isFile() && !tracked.containsKey(name)) {
+                listener.untracked(name, index.hash(f, name));
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** The snapshot of one directory: each name in it mapped either to
+ * the blob id of a file or to the id of the tree of a subdirectory.
+ * A tree is kept in the blob store under the SHA-1 of its encoding,
+ * so a directory whose contents did not change keeps its id, and two
+ * snapshots whose trees have the same id agree on everything below
+ * them. Commits point to the tree of the working directory; the file
+ * names in their maps are paths relative to it, with SEPARATOR
+ * between directories.
+ * @author Jonny W. */
+class Tree {
+
+    /** Kind byte of an encoded tree, as for Codec. */
+    static final byte TREE = 'T';
+
+    /** Separator of the directories in a path. */
+    static final char SEPARATOR = '/';
+
+    /** Kind of an entry naming a file. */
+    private static final byte FILE_ENTRY = 'F';
+
+    /** Kind of an entry naming a subdirectory. */
+    private static final byte DIR_ENTRY = 'D';
+
+    /** Store the trees of the snapshot FILES, which maps paths to blob
+     * ids, in STORE and return the id of its root tree. Trees already
+     * in STORE are not written again. */
+    static String write(Map<String, String> files, BlobStore store) {
+        Node root = new Node();
+        for (var each : files.entrySet()) {
+            root.insert(each.getKey(), each.getValue());
+        }
+        return root.write(store);
+    }
+
+    /** Return the snapshot whose root tree is ROOT in STORE, mapping
+     * every path to its blob id. */
+    static HashMap<String, String> files(String root, BlobStore store) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        collect(root, "", store, result);
+        return result;
+    }
+
+    /** Return the blob id of the file PATH in the snapshot whose root
+     * tree is ROOT in STORE, or null if it has no such file. Only the
+     * trees on the way to PATH are read. */
+    static String find(String root, String path, BlobStore store) {
+        String id = root;
+        int start = 0;
+        while (true) {
+            int end = path.indexOf(SEPARATOR, start);
+            Entry e = read(id, store).get(
+                    end < 0 ? path.substring(start)
+                    : path.substring(start, end));
+            if (e == null || e.dir != (end >= 0)) {
+                return null;
+            }
+            if (end < 0) {
+                return e.id;
+            }
+            id = e.id;
+            start = end + 1;
+        }
+    }
+
+    /** Add the tree ROOT in STORE and every tree and blob below it to
+     * LIVE, along with the chunks of chunked blobs. A tree already in
+     * LIVE is not read again, so snapshots sharing subtrees are only
+     * walked where they differ. */
+    static void mark(String root, BlobStore store, Set<String> live) {
+        if (!live.add(root)) {
+            return;
+        }
+        for (Entry e : read(root, store).values()) {
+            if (e.dir) {
+                mark(e.id, store, live);
+            } else if (live.add(e.id)) {
+                List<String> chunks = store.chunks(e.id);
+                if (chunks != null) {
+                    live.addAll(chunks);
+                }
+            }
+        }
+    }
+
+    /** Return the paths whose blob ids differ between the snapshots
+     * with root trees A and B in STORE, each mapped to its ids in A
+     * and in B, where null stands for an absent file. Subtrees with
+     * the same id in both snapshots are skipped without being read. */
+    static TreeMap<String, String[]> diff(String a, String b,
+                                         BlobStore store) {
+        TreeMap<String, String[]> result = new TreeMap<String, String[]>();
+        diff(a, b, "", store, result);
+        return result;
+    }
+
+    /** Return the paths whose blob ids differ between the snapshots
+     * A and B, which map paths to blob ids, as for diff of two
+     * trees. */
+    static TreeMap<String, String[]> diff(Map<String, String> a,
+                                         Map<String, String> b) {
+        TreeMap<String, String[]> result = new TreeMap<String, String[]>();
+        for (var each : a.entrySet()) {
+            String other = b.get(each.getKey());
+            if (!each.getValue().equals(other)) {
+                result.put(each.getKey(),
+                           new String[] {each.getValue(), other});
+            }
+        }
+        for (var each : b.entrySet()) {
+            if (!a.containsKey(each.getKey())) {
+                result.put(each.getKey(),
+                           new String[] {null, each.getValue()});
+            }
+        }
+        return result;
+    }
+
+    /** Add the differences between the trees A and B in STORE, either
+     * of which may be null for an absent directory, to RESULT, with
+     * PREFIX before every path. */
+    private static void diff(String a, String b, String prefix,
+                             BlobStore store,
+                             TreeMap<String, String[]> result) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        TreeMap<String, Entry> left = a == null
+            ? new TreeMap<String, Entry>() : read(a, store);
+        TreeMap<String, Entry> right = b == null
+            ? new TreeMap<String, Entry>() : read(b, store);
+        TreeSet<String> names = new TreeSet<String>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            Entry x = left.get(name);
+            Entry y = right.get(name);
+            String path = prefix + name;
+            String xDir = x != null && x.dir ? x.id : null;
+            String yDir = y != null && y.dir ? y.id : null;
+            if (xDir != null || yDir != null) {
+                diff(xDir, yDir, path + SEPARATOR, store, result);
+            }
+            String xFile = x != null && !x.dir ? x.id : null;
+            String yFile = y != null && !y.dir ? y.id : null;
+            if (!Objects.equals(xFile, yFile)) {
+                result.put(path, new String[] {xFile, yFile});
+            }
+        }
+    }
+
+    /** Add every file below the tree ID in STORE to RESULT, with
+     * PREFIX before its path. */
+    private static void collect(String id, String prefix, BlobStore store,
+                                HashMap<String, String> result) {
+        for (var each : read(id, store).entrySet()) {
+            Entry e = each.getValue();
+            if (e.dir) {
+                collect(e.id, prefix + each.getKey() + SEPARATOR, store,
+                        result);
+            } else {
+                result.put(prefix + each.getKey(), e.id);
+            }
+        }
+    }
+
+    /** Return the entries of the tree ID in STORE, by name. */
+    private static TreeMap<String, Entry> read(String id, BlobStore store) {
+        TreeMap<String, Entry> result = new TreeMap<String, Entry>();
+        try (DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(store.get(id)))) {
+            Codec.readHeader(in, TREE);
+            int count = Codec.readVarInt(in);
+            for (int i = 0; i < count; i += 1) {
+                String name = Codec.readString(in);
+                boolean dir = in.readByte() == DIR_ENTRY;
+                result.put(name, new Entry(dir, Codec.readString(in)));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt tree %s.", id);
+        }
+        return result;
+    }
+
+    /** One name in a tree. */
+    private static class Entry {
+        /** An entry for a subdirectory if DIR, else for a file, whose
+         * tree or blob id is ID. */
+        Entry(boolean dir, String id) {
+            this.dir = dir;
+            this.id = id;
+        }
+
+        /** True iff this entry names a subdirectory. */
+        private final boolean dir;
+        /** Tree id of the subdirectory or blob id of the file. */
+        private final String id;
+    }
+
+    /** A directory of a snapshot being written. */
+    private static class Node {
+        /** Add the file PATH, relative to this directory, with blob id
+         * ID. */
+        void insert(String path, String id) {
+            int end = path.indexOf(SEPARATOR);
+            if (end < 0) {
+                files.put(path, id);
+            } else {
+                dirs.computeIfAbsent(path.substring(0, end), k -> new Node())
+                    .insert(path.substring(end + 1), id);
+            }
+        }
+
+        /** Store the tree of this directory and those below it in
+         * STORE and return its id. */
+        String write(BlobStore store) {
+            TreeMap<String, Entry> entries = new TreeMap<String, Entry>();
+            for (var each : files.entrySet()) {
+                entries.put(each.getKey(), new Entry(false, each.getValue()));
+            }
+            for (var each : dirs.entrySet()) {
+                entries.put(each.getKey(),
+                            new Entry(true, each.getValue().write(store)));
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                Codec.writeHeader(out, TREE);
+                Codec.writeVarInt(out, entries.size());
+                for (var each : entries.entrySet()) {
+                    Codec.writeString(out, each.getKey());
+                    out.writeByte(each.getValue().dir ? DIR_ENTRY
+                                  : FILE_ENTRY);
+                    Codec.writeString(out, each.getValue().id);
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Internal error encoding tree.");
+            }
+            return store.put(bytes.toByteArray());
+        }
+
+        /** Files directly in this directory, mapped to blob ids. */
+        private final TreeMap<String, String> files =
+            new TreeMap<String, String>();
+        /** Subdirectories of this directory, by name. */
+        private final TreeMap<String, Node> dirs = new TreeMap<String, Node>();
+    }
+}
@@ -0,0 +1,175 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+/** The differences between two versions of one file, printed in the
+ * unified format: a header naming the file, then hunks of changed
+ * lines with CONTEXT unchanged lines around them. Both versions are
+ * read from files through memory maps as MappedLines, so only an index
+ * of their lines is kept in memory. The edit script is computed when
+ * the UnifiedDiff is made, which may be on any thread; the hunks are
+ * only formatted, a line at a time and straight from the mapped files,
+ * when it is written.
+ * @author Jonny W. */
+class UnifiedDiff {
+
+    /** Number of unchanged lines shown around each change. */
+    static final int CONTEXT = 3;
+
+    /** Name standing for a missing version of a file. */
+    private static final String NO_FILE = "/dev/null";
+
+    /** Number of bytes at the start of a file searched for a NUL to
+     * tell whether it is binary. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** The differences between the versions of the file PATH held in
+     * the files BEFORE and AFTER, either of which is null if the file is
+     * absent. The files must not change until this is written. */
+    UnifiedDiff(String path, File before, File after) throws IOException {
+        this.path = path;
+        oldMissing = before == null;
+        newMissing = after == null;
+        binary = isBinary(before) || isBinary(after);
+        if (binary) {
+            return;
+        }
+        oldLines = lines(before);
+        newLines = lines(after);
+        Diff diff = new Diff();
+        diff.setSequences(oldLines, newLines);
+        edits = diff.diffs();
+    }
+
+    /** Write the differences to OUT. Nothing is written if the two
+     * versions are the same. */
+    void write(Writer out) throws IOException {
+        if (!binary && edits.length == 0 && oldMissing == newMissing) {
+            return;
+        }
+        out.write("diff --git a/" + path + " b/" + path + "\n");
+        if (oldMissing) {
+            out.write("new file\n");
+        } else if (newMissing) {
+            out.write("deleted file\n");
+        }
+        if (binary) {
+            out.write("Binary files " + name("a/", oldMissing) + " and "
+                      + name("b/", newMissing) + " differ\n");
+            return;
+        }
+        out.write("--- " + name("a/", oldMissing) + "\n");
+        out.write("+++ " + name("b/", newMissing) + "\n");
+        for (int first = 0; first < edits.length; ) {
+            int last = first;
+            while (last + 4 < edits.length
+                   && edits[last + 4] - (edits[last] + edits[last + 1])
+                   <= 2 * CONTEXT) {
+                last += 4;
+            }
+            writeHunk(out, first, last);
+            first = last + 4;
+        }
+    }
+
+    /** Write the hunk holding the edits from index FIRST to index
+     * LAST of the edit script to OUT. */
+    private void writeHunk(Writer out, int first, int last)
+        throws IOException {
+        int start1 = Math.max(0, edits[first] - CONTEXT);
+        int start2 = Math.max(0, edits[first + 2] - CONTEXT);
+        int end1 = Math.min(oldLines.size(),
+                            edits[last] + edits[last + 1] + CONTEXT);
+        int end2 = Math.min(newLines.size(),
+                            edits[last + 2] + edits[last + 3] + CONTEXT);
+        out.write("@@ -" + range(start1, end1 - start1) + " +"
+                  + range(start2, end2 - start2) + " @@\n");
+        int i = start1;
+        for (int k = first; k <= last; k += 4) {
+            for (; i < edits[k]; i += 1) {
+                writeLine(out, ' ', oldLines, i);
+            }
+            for (int j = 0; j < edits[k + 1]; j += 1) {
+                writeLine(out, '-', oldLines, edits[k] + j);
+            }
+            for (int j = 0; j < edits[k + 3]; j += 1) {
+                writeLine(out, '+', newLines, edits[k + 2] + j);
+            }
+            i = edits[k] + edits[k + 1];
+        }
+        for (; i < end1; i += 1) {
+            writeLine(out, ' ', oldLines, i);
+        }
+    }
+
+    /** Write line K of LINES to OUT after the marker MARK, noting if
+     * it is not ended by a newline. */
+    private static void writeLine(Writer out, char mark, MappedLines lines,
+                                  int k) throws IOException {
+        out.write(mark);
+        out.write(lines.get(k));
+        out.write('\n');
+        if (!lines.terminated(k)) {
+            out.write("\\ No newline at end of file\n");
+        }
+    }
+
+    /** Return the hunk range of LENGTH lines from the 0-based line
+     * START, as printed in a hunk header. */
+    private static String range(int start, int length) {
+        if (length == 0) {
+            return start + ",0";
+        }
+        return length == 1 ? String.valueOf(start + 1)
+            : (start + 1) + "," + length;
+    }
+
+    /** Return the name of this file with PREFIX, or NO_FILE if
+     * MISSING. */
+    private String name(String prefix, boolean missing) {
+        return missing ? NO_FILE : prefix + path;
+    }
+
+    /** Return the lines of FILE, read exactly, or no lines if it is
+     * null. */
+    private static MappedLines lines(File file) throws IOException {
+        return file == null ? MappedLines.EMPTY : new MappedLines(file, true);
+    }
+
+    /** Return true iff FILE, which may be null, looks like binary
+     * data, that is, has a NUL byte in its first BINARY_PROBE bytes. */
+    private static boolean isBinary(File file) throws IOException {
+        if (file == null) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] probe = in.readNBytes(BINARY_PROBE);
+            for (byte b : probe) {
+                if (b == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** The path of the file. */
+    private final String path;
+
+    /** True iff the file is absent in the old or the new version. */
+    private final boolean oldMissing, newMissing;
+
+    /** True iff either version is binary. */
+    private final boolean binary;
+
+    /** The lines of the old and new versions. */
+    private MappedLines oldLines, newLines;
+
+    /** The edit script from the old to the new version, as returned by
+     * Diff.diffs. */
+    private int[] edits;
+}
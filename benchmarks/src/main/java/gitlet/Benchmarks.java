@@ -0,0 +1,29 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** Runs the JMH benchmarks of this module, taking the same arguments as
+ * JMH's own runner. Unless a result format is given, results are also
+ * written as JSON to jmh-result.json, so that runs can be compared by
+ * tools rather than read off the console.
+ * @author Jonny W. */
+public class Benchmarks {
+
+    /** Default file the results are written to. */
+    static final String RESULT_FILE = "jmh-result.json";
+
+    /** Run the benchmarks selected by ARGS. */
+    public static void main(String[] args) throws Exception {
+        ArrayList<String> all = new ArrayList<String>(Arrays.asList(args));
+        if (!all.contains("-rf")) {
+            all.add(0, "-rf");
+            all.add(1, "json");
+            if (!all.contains("-rff")) {
+                all.add(2, "-rff");
+                all.add(3, RESULT_FILE);
+            }
+        }
+        org.openjdk.jmh.Main.main(all.toArray(new String[0]));
+    }
+}
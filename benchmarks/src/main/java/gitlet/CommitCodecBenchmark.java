@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times writing a commit of FILES files to its encoding, reading it
+ * back, and computing its id. The commit encoded has no tree, so that
+ * its files are encoded with it, as in the commits of older
+ * repositories; the commit whose id is computed has one.
+ * @author Jonny W. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitCodecBenchmark {
+
+    /** Number of files of the commit. */
+    @Param({"10", "1000", "10000"})
+    int files;
+
+    /** Make the commit and its encoding. */
+    @Setup
+    public void setUp() {
+        HashMap<String, String> ids = new HashMap<String, String>();
+        for (int i = 0; i < files; i += 1) {
+            ids.put("src/dir" + i % 32 + "/file" + i + ".java",
+                    Utils.sha1("blob " + i));
+        }
+        commit = new Commit();
+        commit.setPrev(Utils.sha1("parent"));
+        commit.initFiles(ids);
+        commit.setTimeStamp();
+        commit.setLogMessage("Benchmark commit of " + files + " files.");
+        commit.setCommitId(Utils.sha1("commit"));
+        encoded = Codec.encodeCommit(commit);
+        sealed = Codec.decodeCommit(encoded);
+        sealed.setTree(Utils.sha1("tree"));
+    }
+
+    /** Return the encoding of the commit. */
+    @Benchmark
+    public byte[] encode() {
+        return Codec.encodeCommit(commit);
+    }
+
+    /** Return the commit read back from its encoding. */
+    @Benchmark
+    public Commit decode() {
+        return Codec.decodeCommit(encoded);
+    }
+
+    /** Return the id of the commit. */
+    @Benchmark
+    public String canonicalId() {
+        return sealed.canonicalId();
+    }
+
+    /** The commit. */
+    private Commit commit;
+
+    /** Its encoding. */
+    private byte[] encoded;
+
+    /** The commit, with a tree. */
+    private Commit sealed;
+}
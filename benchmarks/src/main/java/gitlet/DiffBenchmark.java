@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times Diff.lls and Diff.diffs on two generated files of SIZE lines,
+ * the second made from the first by editing about (1 - SIMILARITY) of
+ * its lines, with each strategy. The lines are drawn from a vocabulary
+ * of a quarter as many distinct lines as the file has, so that, as in
+ * source code, some lines occur many times.
+ * @author Jonny W. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+
+    /** Number of lines of the first file. */
+    @Param({"1000", "10000", "100000"})
+    int size;
+
+    /** Fraction of the lines left unedited. */
+    @Param({"0.5", "0.9", "0.99"})
+    double similarity;
+
+    /** Strategy of the diff. */
+    @Param({"AUTO", "PATIENCE", "HISTOGRAM"})
+    Diff.Strategy strategy;
+
+    /** Make both files. */
+    @Setup
+    public void setUp() {
+        Random random = new Random(size);
+        int vocabulary = Math.max(1, size / 4);
+        seq1 = new ArrayList<String>(size);
+        for (int i = 0; i < size; i += 1) {
+            seq1.add(line(random, vocabulary));
+        }
+        seq2 = new ArrayList<String>(size);
+        for (String line : seq1) {
+            if (random.nextDouble() < similarity) {
+                seq2.add(line);
+                continue;
+            }
+            switch (random.nextInt(3)) {
+            case 0:
+                seq2.add(line(random, vocabulary));
+                break;
+            case 1:
+                break;
+            default:
+                seq2.add(line);
+                seq2.add(line(random, vocabulary));
+                break;
+            }
+        }
+    }
+
+    /** Return the length of the longest common subsequence. */
+    @Benchmark
+    public int lls() {
+        return diff().lls();
+    }
+
+    /** Return the edit script. */
+    @Benchmark
+    public int[] diffs() {
+        return diff().diffs();
+    }
+
+    /** Return a new Diff of the two files. A new one is made each time
+     * because a Diff keeps what it computed. */
+    private Diff diff() {
+        Diff d = new Diff(strategy);
+        d.setSequences(seq1, seq2);
+        return d;
+    }
+
+    /** Return a line drawn from the first VOCABULARY lines using
+     * RANDOM. */
+    private static String line(Random random, int vocabulary) {
+        return "    statement(" + random.nextInt(vocabulary) + ");";
+    }
+
+    /** The two files. */
+    private List<String> seq1, seq2;
+}
@@ -0,0 +1,29 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/** Scratch directories for the benchmarks that need files.
+ * @author Jonny W. */
+class Fixtures {
+
+    /** Return a new empty directory whose name starts with PREFIX. */
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory("gitlet-" + prefix).toFile();
+    }
+
+    /** Delete the directory DIR and everything below it. */
+    static void delete(File dir) throws IOException {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times finding the split point of two branches, which is the first
+ * of CommitGraph.mergeBases, as Main.getSplitPoint does, on a
+ * generated history of COMMITS commits. The history grows BRANCHES
+ * branches at random; each new commit is merged from another branch
+ * with probability MERGES. The graph is written to a file and read
+ * back, as a command would find it.
+ * @author Jonny W. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBaseBenchmark {
+
+    /** Number of branches grown. */
+    static final int BRANCHES = 8;
+
+    /** Number of commits of the history. */
+    @Param({"1000", "10000", "100000"})
+    int commits;
+
+    /** Probability that a commit is a merge. */
+    @Param({"0.0", "0.1"})
+    double merges;
+
+    /** Generate the history and open its graph. */
+    @Setup
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir("graph");
+        File graphFile = new File(dir, "graph");
+        File textFile = new File(dir, "graph-text");
+        CommitGraph building = new CommitGraph(graphFile, textFile);
+        Random random = new Random(commits);
+        String[] tips = new String[BRANCHES];
+        tips[0] = add(building, 0, null, null);
+        for (int b = 1; b < BRANCHES; b += 1) {
+            tips[b] = tips[0];
+        }
+        for (int k = 1; k < commits; k += 1) {
+            int b = random.nextInt(BRANCHES);
+            String other = null;
+            if (random.nextDouble() < merges) {
+                int from = random.nextInt(BRANCHES);
+                if (!tips[from].equals(tips[b])) {
+                    other = tips[from];
+                }
+            }
+            tips[b] = add(building, k, tips[b], other);
+        }
+        building.flush();
+        graph = new CommitGraph(graphFile, textFile);
+        head = graph.find(tips[0]);
+        branch = graph.find(tips[1]);
+    }
+
+    /** Delete the graph. */
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    /** Return the split point of the two branches. */
+    @Benchmark
+    public int splitPoint() {
+        List<Integer> bases = graph.mergeBases(head, branch);
+        return bases.get(0);
+    }
+
+    /** Add the commit numbered K, whose parents are PREV and PREV2, to
+     * G, and return its id. */
+    private static String add(CommitGraph g, int k, String prev,
+                              String prev2) {
+        Commit c = new Commit();
+        c.setPrev(prev);
+        c.setPrev2(prev2);
+        c.setTimeStamp();
+        c.setLogMessage("Commit " + k + ".");
+        c.setTree(Utils.sha1("tree " + k));
+        c.setCommitId(c.canonicalId());
+        g.add(c);
+        return c.getCommitId();
+    }
+
+    /** The directory of the graph files. */
+    private File dir;
+
+    /** The graph read back. */
+    private CommitGraph graph;
+
+    /** The indices in GRAPH of the tips of the two branches. */
+    private int head, branch;
+}
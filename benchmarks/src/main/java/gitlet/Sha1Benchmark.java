@@ -0,0 +1,48 @@
+package gitlet;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times Utils.sha1 on byte arrays of SIZE bytes, from the size of a
+ * commit header to that of a large file.
+ * @author Jonny W. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Sha1Benchmark {
+
+    /** Number of bytes hashed. */
+    @Param({"64", "4096", "1048576"})
+    int size;
+
+    /** Make the bytes. */
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+    }
+
+    /** Return the id of the bytes. */
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(data);
+    }
+
+    /** The bytes hashed. */
+    private byte[] data;
+}
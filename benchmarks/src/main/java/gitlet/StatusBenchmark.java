@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Times finding the modified and untracked files of a generated
+ * working tree of FILES files, spread over nested directories, with
+ * StatusWalk, the walk Main does before status and every command that
+ * reads the working tree. Nine tenths of the files are tracked, and
+ * one in a hundred of those differs from its tracked version. With a
+ * warm index the files are only stat'ed; with a cold one every file is
+ * read and hashed.
+ * @author Jonny W. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatusBenchmark {
+
+    /** Number of files of the working tree. */
+    @Param({"1000", "10000"})
+    int files;
+
+    /** Size of each file, in bytes. */
+    @Param({"4096"})
+    int fileSize;
+
+    /** Make the working tree, the tracked ids and a warm index. */
+    @Setup
+    public void setUp() throws IOException {
+        dir = Fixtures.tempDir("status");
+        work = new File(dir, "work");
+        indexFile = new File(dir, "index");
+        Random random = new Random(files);
+        byte[] contents = new byte[fileSize];
+        long past = System.currentTimeMillis() - 60_000;
+        tracked = new HashMap<String, String>();
+        for (int i = 0; i < files; i += 1) {
+            String name = "d" + i % 10 + "/d" + i % 100 + "/f" + i;
+            File f = new File(work, name);
+            f.getParentFile().mkdirs();
+            random.nextBytes(contents);
+            Utils.writeContents(f, contents);
+            f.setLastModified(past);
+            if (i % 10 != 0) {
+                tracked.put(name, i % 100 == 1 ? Utils.sha1(name)
+                            : BlobStore.hash(contents));
+            }
+        }
+        Index warm = new Index(indexFile);
+        scan(warm);
+        warm.save();
+    }
+
+    /** Delete the working tree and index. */
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dir);
+    }
+
+    /** Return the number of changed files, using the saved index. */
+    @Benchmark
+    public int warmIndex() {
+        return scan(new Index(indexFile));
+    }
+
+    /** Return the number of changed files, using an empty index. */
+    @Benchmark
+    public int coldIndex() {
+        return scan(new Index(new File(dir, "none")));
+    }
+
+    /** Return the number of modified and untracked files found through
+     * INDEX by the walk status uses. */
+    private int scan(Index index) {
+        int[] changed = new int[1];
+        StatusWalk.walk(work, tracked, index, new StatusWalk.Listener() {
+            @Override
+            public void untracked(String name, String id) {
+                changed[0] += 1;
+            }
+
+            @Override
+            public void modified(String name, String id) {
+                changed[0] += 1;
+            }
+        });
+        return changed[0];
+    }
+
+    /** The directory holding the working tree and index. */
+    private File dir;
+
+    /** The working tree. */
+    private File work;
+
+    /** The file of the warm index. */
+    private File indexFile;
+
+    /** The tracked ids of the files, by name. */
+    private HashMap<String, String> tracked;
+}
@@ -0,0 +1,32 @@
+package gitlet;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of commands run in a batch.
+ * @author Jonny W. */
+public class BatchTest {
+
+    /** A commit made in a batch survives switching branches in the
+     * same batch, and its files come back with its branch. */
+    @Test
+    public void commitThenCheckoutBranch() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            repo.run("init");
+            repo.run("branch", "other");
+            repo.write("a.txt", "made in a batch\n");
+            assertEquals("", repo.runWithInput("add a.txt\n"
+                                               + "commit \"add a\"\n"
+                                               + "checkout other\n",
+                                               "batch"));
+            assertTrue(!repo.file("a.txt").exists());
+            assertEquals("", repo.run("checkout", "master"));
+            assertEquals("made in a batch\n", repo.read("a.txt"));
+            assertTrue(repo.run("log").contains("add a"));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Tests of storing blobs.
+ * @author Jonny W. */
+public class BlobStoreTest {
+
+    /** Many threads storing the same small file at once all succeed,
+     * as a parallel add of identical files does, and leave no
+     * temporary file behind. */
+    @Test
+    public void sameSmallFileStoredAtOnce() throws Exception {
+        storeAtOnce(900 << 10);
+    }
+
+    /** The same holds for a large file, stored in chunks with a
+     * manifest. */
+    @Test
+    public void sameLargeFileStoredAtOnce() throws Exception {
+        storeAtOnce(3 * (int) BlobStore.LARGE_FILE);
+    }
+
+    /** Store copies of one file of SIZE random bytes from many threads
+     * at once into fresh stores, ROUNDS times, and check the blob and
+     * what is left in the folders of each store. */
+    private static void storeAtOnce(int size)
+        throws IOException, InterruptedException, ExecutionException {
+        try (TestRepo repo = new TestRepo()) {
+            byte[] contents = new byte[size];
+            new Random(size).nextBytes(contents);
+            String id = BlobStore.hash(contents);
+            ArrayList<File> copies = new ArrayList<File>();
+            for (int i = 0; i < COPIES; i += 1) {
+                copies.add(repo.file("f" + i));
+                Utils.writeContents(copies.get(i), contents);
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(COPIES);
+            try {
+                for (int round = 0; round < ROUNDS; round += 1) {
+                    String blobs = "blobs" + round;
+                    String manifests = "manifests" + round;
+                    repo.file(blobs).mkdirs();
+                    BlobStore store = new BlobStore(repo.file(blobs),
+                            repo.file("packs"), repo.file(manifests));
+                    List<Future<?>> tasks = new ArrayList<Future<?>>();
+                    for (File copy : copies) {
+                        tasks.add(pool.submit(() -> store.put(copy, id)));
+                    }
+                    for (Future<?> task : tasks) {
+                        task.get();
+                    }
+                    assertArrayEquals(contents, store.get(id));
+                    assertOnlyIds(repo.file(blobs));
+                    assertOnlyIds(repo.file(manifests));
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /** Assert that every file in the folder DIR, if it exists, is named
+     * by an id. */
+    private static void assertOnlyIds(File dir) {
+        String[] names = dir.list();
+        for (String name : names == null ? new String[0] : names) {
+            assertEquals(name, 40, name.length());
+        }
+    }
+
+    /** Number of copies stored at once. */
+    private static final int COPIES = 32;
+
+    /** Number of times the copies are stored into a fresh store. */
+    private static final int ROUNDS = 8;
+}
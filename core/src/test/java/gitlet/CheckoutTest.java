@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of how checkout changes the working directory.
+ * @author Jonny W. */
+public class CheckoutTest {
+
+    /** When one file of a checkout cannot be put in place, the files
+     * already replaced are restored and no temporary file is left. */
+    @Test
+    public void failedCheckoutChangesNothing() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            repo.run("init");
+            repo.run("branch", "other");
+            repo.write("a.txt", "master\n");
+            repo.run("add", "a.txt");
+            repo.run("commit", "on master");
+            repo.run("checkout", "other");
+            repo.write("a.txt", "other\n");
+            repo.write("d", "a file\n");
+            repo.run("add", "a.txt", "d");
+            repo.run("commit", "on other");
+            repo.run("checkout", "master");
+            repo.write("d/untracked", "in the way\n");
+
+            String out = repo.run("checkout", "other");
+            assertTrue(out, out.endsWith("no files were changed.\n"));
+            assertEquals("master\n", repo.read("a.txt"));
+            assertEquals("in the way\n", repo.read("d/untracked"));
+            String status = repo.run("status");
+            assertTrue(status, status.endsWith("=== Untracked Files ===\n"
+                                               + "d/untracked\n\n"));
+        }
+    }
+
+    /** Checking out a commit with a directory where the head has a
+     * file of the same name replaces the file with the directory. */
+    @Test
+    public void fileBecomesDirectory() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            fileAndDirectory(repo);
+            repo.run("checkout", "master");
+            assertEquals("", repo.run("checkout", "other"));
+            assertEquals("below\n", repo.read("x/y"));
+        }
+    }
+
+    /** Checking out a commit with a file where the head has a directory
+     * of the same name replaces the directory with the file. */
+    @Test
+    public void directoryBecomesFile() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            fileAndDirectory(repo);
+            assertEquals("", repo.run("checkout", "master"));
+            assertEquals("a file\n", repo.read("x"));
+        }
+    }
+
+    /** Make REPO's master track a file x and its branch other, checked
+     * out, a file x/y instead. */
+    private static void fileAndDirectory(TestRepo repo) throws IOException {
+        repo.run("init");
+        repo.run("branch", "other");
+        repo.write("x", "a file\n");
+        repo.run("add", "x");
+        repo.run("commit", "x is a file");
+        repo.run("checkout", "other");
+        repo.write("x/y", "below\n");
+        repo.run("add", "x");
+        repo.run("commit", "x is a directory");
+    }
+}
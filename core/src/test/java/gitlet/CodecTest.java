@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests of the encoding of commits and working state, and of reading
+ * what older versions of gitlet wrote.
+ * @author Jonny W. */
+public class CodecTest {
+
+    /** A commit with a tree, parents and staged changes decodes to the
+     * same fields, without its files, which its tree holds. */
+    @Test
+    public void commitRoundTrip() {
+        Commit c = sample();
+        c.setTree(Utils.sha1("tree"));
+        byte[] data = Codec.encodeCommit(c);
+        assertFalse(Codec.isLegacy(data));
+
+        Commit d = Codec.decodeCommit(data);
+        assertEquals(c.getCommitId(), d.getCommitId());
+        assertEquals(c.getTimeStamp(), d.getTimeStamp());
+        assertEquals(c.getLogMessage(), d.getLogMessage());
+        assertEquals(c.getPrev(), d.getPrev());
+        assertEquals(c.getPrev2(), d.getPrev2());
+        assertEquals(c.getTree(), d.getTree());
+        assertEquals(c.getNewFiles(), d.getNewFiles());
+        assertEquals(c.getStaged(), d.getStaged());
+        assertEquals(c.getUntracked(), d.getUntracked());
+        assertEquals(c.getModified(), d.getModified());
+        assertEquals(c.getRemoved(), d.getRemoved());
+        assertArrayEquals(data, Codec.encodeCommit(d));
+    }
+
+    /** A commit written in format version 1, before trees, is read
+     * with its files and no tree. */
+    @Test
+    public void readsVersionOne() throws IOException {
+        Commit c = sample();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            byte[] header = Arrays.copyOf(Codec.encodeCommit(c), 5);
+            header[4] = 1;
+            out.write(header);
+            for (String field : new String[] {c.getCommitId(),
+                    c.getTimeStamp(), c.getLogMessage(), c.getPrev(),
+                    c.getPrev2()}) {
+                Codec.writeString(out, field);
+            }
+            for (Map<String, String> map : List.of(c.getFiles(),
+                    c.getNewFiles(), c.getStaged(), c.getUntracked(),
+                    c.getModified(), c.getRemoved())) {
+                Codec.writeMap(out, map);
+            }
+        }
+        Commit d = Codec.decodeCommit(bytes.toByteArray());
+        assertNull(d.getTree());
+        assertEquals(c.getFiles(), d.getFiles());
+        assertEquals(c.getNewFiles(), d.getNewFiles());
+        assertEquals(c.getRemoved(), d.getRemoved());
+    }
+
+    /** Maps, including null values, and strings round-trip, and a file
+     * of a later format version is refused. */
+    @Test
+    public void mapsStringsAndVersions() {
+        HashMap<String, String> map = new HashMap<String, String>();
+        map.put("master", Utils.sha1("a"));
+        map.put("ünïcode", null);
+        assertEquals(map, Codec.decodeMap(Codec.encodeMap(map)));
+        assertEquals("master", Codec.decodeString(
+                Codec.encodeString("master")));
+
+        byte[] data = Codec.encodeString("x");
+        data[4] = Codec.VERSION + 1;
+        try {
+            Codec.decodeString(data);
+            fail("later version was read");
+        } catch (GitletException excp) {
+            assertEquals("Unsupported format version "
+                         + (Codec.VERSION + 1) + ".", excp.getMessage());
+        }
+    }
+
+    /** A commit Java-serialized by an older gitlet, whose maps hold file
+     * contents, is read back and migrated: tracked contents move into
+     * the blob store and every map holds blob ids. */
+    @Test
+    public void migratesLegacyCommit() throws IOException {
+        Commit legacy = new Commit();
+        legacy.setCommitId(Utils.sha1("legacy"));
+        legacy.setTimeStamp(0);
+        legacy.setLogMessage("second commit");
+        legacy.setPrev(Utils.sha1("parent"));
+        HashMap<String, String> contents = new HashMap<String, String>();
+        contents.put("a.txt", "hello\n");
+        legacy.initFiles(contents);
+        legacy.addFiles("b.txt", "staged\n");
+        legacy.addUntracked("c.txt", "loose\n");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(legacy);
+        }
+        byte[] data = bytes.toByteArray();
+        assertTrue(Codec.isLegacy(data));
+
+        try (TestRepo repo = new TestRepo()) {
+            BlobStore blobs = new BlobStore(repo.file("blobs"),
+                    repo.file("packs"), repo.file("manifests"));
+            repo.file("blobs").mkdirs();
+            Commit c = Codec.decodeCommit(data);
+            assertEquals("second commit", c.getLogMessage());
+            c.migrate(blobs);
+
+            String a = id("hello\n");
+            String b = id("staged\n");
+            assertEquals(Map.of("a.txt", a), c.getFiles());
+            assertEquals(Map.of("a.txt", a, "b.txt", b), c.getNewFiles());
+            assertEquals(Map.of("b.txt", b), c.getStaged());
+            assertEquals(Map.of("c.txt", id("loose\n")), c.getUntracked());
+            assertEquals("hello\n", blobs.getAsString(a));
+            assertEquals("staged\n", blobs.getAsString(b));
+            assertFalse(blobs.contains(id("loose\n")));
+        }
+    }
+
+    /** Return a commit with two parents, files and every kind of
+     * change. */
+    private static Commit sample() {
+        Commit c = new Commit();
+        c.setPrev(Utils.sha1("parent"));
+        c.setPrev2(Utils.sha1("other parent"));
+        c.setTimeStamp(0);
+        c.setLogMessage("merged\nwith a second line");
+        HashMap<String, String> files = new HashMap<String, String>();
+        files.put("a.txt", id("a"));
+        files.put("dir/b.txt", id("b"));
+        c.initFiles(files);
+        c.addFiles("c.txt", id("c"));
+        c.addRemoved("dir/b.txt");
+        c.addModified("a.txt", id("a2"));
+        c.addUntracked("d.txt", id("d"));
+        c.setCommitId(Utils.sha1("commit"));
+        return c;
+    }
+
+    /** Return the blob id of the text CONTENTS. */
+    private static String id(String contents) {
+        return BlobStore.hash(contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/** Tests of the two tiers of the commit cache.
+ * @author Jonny W. */
+public class CommitCacheTest {
+
+    /** Once the first tier is over capacity, the least recently used
+     * commit, counting lookups as uses, is the one evicted. */
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        CommitCache cache = new CommitCache(3 * CommitCache.estimate(LENGTH));
+        List<Commit> commits = commits(4);
+        for (int i = 0; i < 3; i += 1) {
+            cache.put(id(i), commits.get(i), LENGTH);
+        }
+        assertSame(commits.get(0), cache.get(id(0)));
+        cache.put(id(3), commits.get(3), LENGTH);
+        assertEquals(3 * CommitCache.estimate(LENGTH), cache.used());
+
+        assertSame(commits.get(0), cache.get(id(0)));
+        assertSame(commits.get(2), cache.get(id(2)));
+        assertSame(commits.get(3), cache.get(id(3)));
+        assertEquals(4, cache.hits());
+        assertEquals(0, cache.softHits());
+        assertSame(commits.get(1), cache.get(id(1)));
+        assertEquals(1, cache.softHits());
+        assertEquals(0, cache.misses());
+    }
+
+    /** A commit found in the soft tier moves back into the first,
+     * evicting the least recently used one there in turn, and is then
+     * found in the first tier. */
+    @Test
+    public void promotesFromSoftTier() {
+        CommitCache cache = new CommitCache(2 * CommitCache.estimate(LENGTH));
+        List<Commit> commits = commits(3);
+        for (int i = 0; i < 3; i += 1) {
+            cache.put(id(i), commits.get(i), LENGTH);
+        }
+
+        assertSame(commits.get(0), cache.get(id(0)));
+        assertEquals(1, cache.softHits());
+        assertEquals(2 * CommitCache.estimate(LENGTH), cache.used());
+        assertSame(commits.get(0), cache.get(id(0)));
+        assertEquals(1, cache.hits());
+
+        assertSame(commits.get(1), cache.get(id(1)));
+        assertEquals(2, cache.softHits());
+        assertSame(commits.get(0), cache.get(id(0)));
+        assertSame(commits.get(1), cache.get(id(1)));
+        assertEquals(3, cache.hits());
+        assertEquals(2 * CommitCache.estimate(LENGTH), cache.used());
+    }
+
+    /** A commit larger than the capacity is still kept, alone, in the
+     * first tier; removed and cleared commits are missed in both
+     * tiers. */
+    @Test
+    public void oversizedRemovedAndCleared() {
+        CommitCache cache = new CommitCache(CommitCache.estimate(LENGTH));
+        List<Commit> commits = commits(3);
+        cache.put(id(0), commits.get(0), LENGTH);
+        cache.put(id(1), commits.get(1), 10 * LENGTH);
+        assertEquals(CommitCache.estimate(10 * LENGTH), cache.used());
+        assertSame(commits.get(1), cache.get(id(1)));
+        assertEquals(1, cache.hits());
+
+        cache.remove(id(1));
+        assertEquals(0, cache.used());
+        assertNull(cache.get(id(1)));
+        cache.remove(id(0));
+        assertNull(cache.get(id(0)));
+
+        cache.put(id(2), commits.get(2), LENGTH);
+        cache.clear();
+        assertNull(cache.get(id(2)));
+        assertEquals(3, cache.misses());
+        assertEquals(0, cache.used());
+    }
+
+    /** Return N distinct commits. */
+    private static List<Commit> commits(int n) {
+        ArrayList<Commit> result = new ArrayList<Commit>();
+        for (int i = 0; i < n; i += 1) {
+            Commit c = new Commit();
+            c.setLogMessage("commit " + i);
+            c.setCommitId(id(i));
+            result.add(c);
+        }
+        return result;
+    }
+
+    /** Return the id of the Ith commit. */
+    private static String id(int i) {
+        return Utils.sha1("commit " + i);
+    }
+
+    /** Length of the encoding of each commit. */
+    private static final long LENGTH = 100;
+}
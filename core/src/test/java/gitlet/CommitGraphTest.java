@@ -0,0 +1,77 @@
+package gitlet;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of the commit graph as the commands see it.
+ * @author Jonny W. */
+public class CommitGraphTest {
+
+    /** A branch head missing from the commit graph, as after a crash
+     * between writing a commit and flushing the graph, is added back
+     * with its ancestors when the graph is next opened. */
+    @Test
+    public void missingHeadIsAddedBack() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            repo.run("init");
+            repo.write("a.txt", "one\n");
+            repo.run("add", "a.txt");
+            repo.run("commit", "one");
+            byte[] graph = Utils.readContents(repo.file(GRAPH));
+            byte[] text = Utils.readContents(repo.file(GRAPH_TEXT));
+            repo.write("a.txt", "two\n");
+            repo.run("add", "a.txt");
+            repo.run("commit", "two");
+            repo.write(GRAPH, graph);
+            repo.write(GRAPH_TEXT, text);
+
+            String log = repo.run("log");
+            assertTrue(log, log.contains("two") && log.contains("one"));
+            String bases = repo.run("merge-base", "master", "master");
+            assertTrue(bases, bases.matches("[0-9a-f]{40}\n"));
+        }
+    }
+
+    /** Dates and messages of commits not flushed yet read back, before
+     * and after a flush, together with those already in the files. */
+    @Test
+    public void readsPendingText() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            CommitGraph g = new CommitGraph(repo.file("graph"),
+                                            repo.file("text"));
+            String prev = null;
+            for (int i = 0; i < 6; i += 1) {
+                Commit c = new Commit();
+                c.setPrev(prev);
+                c.setTimeStamp(0);
+                c.setLogMessage("message " + i);
+                c.setTree(Utils.sha1("tree " + i));
+                c.setCommitId(Utils.sha1("commit " + i));
+                g.add(c);
+                prev = c.getCommitId();
+                if (i == 2) {
+                    g.flush();
+                }
+                for (int k = 0; k <= i; k += 1) {
+                    assertEquals("message " + k, g.message(k));
+                    assertEquals(c.getTimeStamp(), g.timeStamp(k));
+                }
+            }
+            g.flush();
+            CommitGraph read = new CommitGraph(repo.file("graph"),
+                                               repo.file("text"));
+            assertEquals(6, read.size());
+            assertEquals("message 4", read.message(read.find(prev) - 1));
+        }
+    }
+
+    /** The commit-graph file. */
+    private static final String GRAPH = ".gitlet/commit-graph";
+
+    /** The text of the commit graph. */
+    private static final String GRAPH_TEXT = ".gitlet/commit-graph-text";
+}
@@ -0,0 +1,254 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of the edit scripts of Diff, for every strategy and for lines
+ * given as lists or read from files.
+ * @author Jonny W. */
+public class DiffTest {
+
+    /** Every strategy gives a valid edit script on random inputs, and
+     * Myers' changes no more lines than the LCS table. */
+    @Test
+    public void strategiesGiveValidScripts() {
+        Random random = new Random(16);
+        for (int trial = 0; trial < TRIALS; trial += 1) {
+            List<String> a = randomLines(random);
+            List<String> b = mutate(a, random);
+            int optimal = changed(edits(Diff.Strategy.LCS, a, b));
+            for (Diff.Strategy strategy : Diff.Strategy.values()) {
+                int[] edits = edits(strategy, a, b);
+                assertValid(strategy + " on " + a + " to " + b, a, b, edits);
+                assertTrue(strategy + " is not optimal",
+                           changed(edits) >= optimal);
+            }
+            assertEquals("MYERS on " + a + " to " + b, optimal,
+                         changed(edits(Diff.Strategy.MYERS, a, b)));
+        }
+    }
+
+    /** Empty and identical sequences give the obvious scripts. */
+    @Test
+    public void edgeCases() {
+        List<String> some = List.of("a", "b", "c");
+        for (Diff.Strategy strategy : Diff.Strategy.values()) {
+            assertArrayEquals(new int[0],
+                              edits(strategy, List.of(), List.of()));
+            assertArrayEquals(new int[0], edits(strategy, some, some));
+            assertArrayEquals(new int[] {0, 3, 0, 0},
+                              edits(strategy, some, List.of()));
+            assertArrayEquals(new int[] {0, 0, 0, 3},
+                              edits(strategy, List.of(), some));
+        }
+    }
+
+    /** Lines read from files, through memory maps or not, and a mapped
+     * file compared with a list, in either order, give the same script
+     * as the lists of their lines. */
+    @Test
+    public void fileInputsMatchLists() throws IOException {
+        Random random = new Random(19);
+        try (TestRepo repo = new TestRepo()) {
+            for (int trial = 0; trial < TRIALS / 10; trial += 1) {
+                List<String> a = randomLines(random);
+                List<String> b = mutate(a, random);
+                File fa = repo.file("a");
+                File fb = repo.file("b");
+                Utils.writeContents(fa, text(a));
+                Utils.writeContents(fb, text(b));
+                for (Diff.Strategy strategy : Diff.Strategy.values()) {
+                    int[] expected = edits(strategy, a, b);
+                    Diff diff = new Diff(strategy);
+                    diff.setSequences(fa, fb, true);
+                    assertArrayEquals(expected, diff.diffs());
+                    diff.setSequences(fa, fb, false);
+                    assertArrayEquals(expected, diff.diffs());
+                    diff.setSequences(new MappedLines(fa), b);
+                    assertArrayEquals(strategy + " mapped to list",
+                                      expected, diff.diffs());
+                    diff.setSequences(a, new MappedLines(fb));
+                    assertArrayEquals(strategy + " list to mapped",
+                                      expected, diff.diffs());
+                }
+            }
+        }
+    }
+
+    /** Patience and histogram anchor on a line occurring once, even
+     * where that changes more lines than needed, so they are what runs
+     * on inputs small enough for the LCS table. */
+    @Test
+    public void anchoredStrategiesRunOnSmallInputs() {
+        List<String> a = List.of("u", "c", "c", "c", "v");
+        List<String> b = List.of("v", "c", "c", "c", "u");
+        for (Diff.Strategy strategy : Diff.Strategy.values()) {
+            int[] edits = edits(strategy, a, b);
+            assertValid(strategy.toString(), a, b, edits);
+            boolean anchored = strategy == Diff.Strategy.PATIENCE
+                || strategy == Diff.Strategy.HISTOGRAM;
+            assertEquals(strategy.toString(), anchored ? 8 : 4,
+                         changed(edits));
+        }
+    }
+
+    /** Histogram anchors on a line occurring MAX_CHAIN times, but not on
+     * one occurring more often, leaving such ranges to Myers. */
+    @Test
+    public void histogramAnchorsUpToMaxChain() {
+        int n = Diff.MAX_CHAIN;
+        List<String> a = runs("p", n, "q", n + 1);
+        List<String> b = runs("q", n + 1, "p", n);
+        int[] edits = edits(Diff.Strategy.HISTOGRAM, a, b);
+        assertValid("anchored", a, b, edits);
+        assertEquals(2 * (n + 1), changed(edits));
+
+        a = runs("p", n + 1, "q", n + 2);
+        b = runs("q", n + 2, "p", n + 1);
+        edits = edits(Diff.Strategy.HISTOGRAM, a, b);
+        assertValid("not anchored", a, b, edits);
+        assertEquals(changed(edits(Diff.Strategy.MYERS, a, b)),
+                     changed(edits));
+        assertEquals(2 * (n + 1), changed(edits));
+    }
+
+    /** On inputs whose LCS table would have more than LCS_CELLS
+     * entries, with many repeated lines, every strategy but LCS gives a
+     * valid script, none changing fewer lines than Myers, and AUTO uses
+     * Myers. */
+    @Test
+    public void largeInputs() {
+        Random random = new Random(17);
+        for (int trial = 0; trial < 3; trial += 1) {
+            ArrayList<String> a = new ArrayList<String>();
+            for (int i = 0; i < 1200; i += 1) {
+                a.add(random.nextInt(4) == 0 ? "{" + random.nextInt(5) + "}"
+                      : "line " + random.nextInt(2000));
+            }
+            ArrayList<String> b = new ArrayList<String>(a);
+            for (int i = 0; i < 40; i += 1) {
+                int at = random.nextInt(b.size());
+                if (random.nextBoolean()) {
+                    b.remove(at);
+                } else {
+                    b.add(at, "new " + random.nextInt(50));
+                }
+            }
+            assertTrue((long) (a.size() + 1) * (b.size() + 1)
+                       > Diff.LCS_CELLS);
+            int[] myers = edits(Diff.Strategy.MYERS, a, b);
+            assertValid("MYERS", a, b, myers);
+            assertArrayEquals(myers, edits(Diff.Strategy.AUTO, a, b));
+            for (Diff.Strategy strategy : List.of(Diff.Strategy.PATIENCE,
+                                                  Diff.Strategy.HISTOGRAM)) {
+                int[] edits = edits(strategy, a, b);
+                assertValid(strategy.toString(), a, b, edits);
+                assertTrue(strategy.toString(),
+                           changed(edits) >= changed(myers));
+            }
+        }
+    }
+
+    /** Return the edit script from A to B found with STRATEGY. */
+    static int[] edits(Diff.Strategy strategy, List<String> a,
+                       List<String> b) {
+        Diff diff = new Diff(strategy);
+        diff.setSequences(a, b);
+        return diff.diffs();
+    }
+
+    /** Assert that EDITS, described by MSG, is a valid edit script from
+     * A to B: its edits are in order, do not touch and are not empty,
+     * and applying them to A gives B. */
+    static void assertValid(String msg, List<String> a, List<String> b,
+                            int[] edits) {
+        assertEquals(msg, 0, edits.length % 4);
+        ArrayList<String> result = new ArrayList<String>();
+        int next = 0;
+        for (int k = 0; k < edits.length; k += 4) {
+            assertTrue(msg, edits[k] >= next && edits[k] <= a.size());
+            assertTrue(msg, k == 0 || edits[k] > next);
+            assertTrue(msg, edits[k + 1] + edits[k + 3] > 0);
+            result.addAll(a.subList(next, edits[k]));
+            assertEquals(msg, result.size(), edits[k + 2]);
+            result.addAll(b.subList(edits[k + 2],
+                                    edits[k + 2] + edits[k + 3]));
+            next = edits[k] + edits[k + 1];
+        }
+        result.addAll(a.subList(next, a.size()));
+        assertEquals(msg, b, result);
+    }
+
+    /** Return the number of lines removed and added by EDITS. */
+    static int changed(int[] edits) {
+        int result = 0;
+        for (int k = 0; k < edits.length; k += 4) {
+            result += edits[k + 1] + edits[k + 3];
+        }
+        return result;
+    }
+
+    /** Return up to 40 lines drawn from a small alphabet, so that lines
+     * repeat, using RANDOM. */
+    static List<String> randomLines(Random random) {
+        ArrayList<String> result = new ArrayList<String>();
+        int n = random.nextInt(40);
+        for (int i = 0; i < n; i += 1) {
+            result.add(String.valueOf((char) ('a' + random.nextInt(6))));
+        }
+        return result;
+    }
+
+    /** Return LINES with a few random lines removed, replaced and
+     * inserted, using RANDOM. */
+    static List<String> mutate(List<String> lines, Random random) {
+        ArrayList<String> result = new ArrayList<String>(lines);
+        int changes = random.nextInt(8);
+        for (int i = 0; i < changes; i += 1) {
+            int at = random.nextInt(result.size() + 1);
+            String line = String.valueOf((char) ('a' + random.nextInt(8)));
+            switch (result.isEmpty() ? 0 : random.nextInt(3)) {
+            case 0:
+                result.add(at, line);
+                break;
+            case 1:
+                result.remove(Math.min(at, result.size() - 1));
+                break;
+            default:
+                result.set(Math.min(at, result.size() - 1), line);
+                break;
+            }
+        }
+        return result;
+    }
+
+    /** Return N1 copies of the line L1 followed by N2 copies of L2. */
+    private static List<String> runs(String l1, int n1, String l2, int n2) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (int i = 0; i < n1 + n2; i += 1) {
+            result.add(i < n1 ? l1 : l2);
+        }
+        return result;
+    }
+
+    /** Return LINES as the text of a file, each ended by a newline. */
+    private static String text(List<String> lines) {
+        StringBuilder result = new StringBuilder();
+        for (String line : lines) {
+            result.append(line).append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Number of random inputs tried. */
+    private static final int TRIALS = 500;
+}
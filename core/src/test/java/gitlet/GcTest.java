@@ -0,0 +1,35 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Tests of what gc keeps.
+ * @author Jonny W. */
+public class GcTest {
+
+    /** The chunks of a large file that is only staged survive gc, so
+     * that it can be committed and checked out afterwards. */
+    @Test
+    public void stagedChunkedFileSurvives() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            byte[] contents = new byte[3 * (int) BlobStore.LARGE_FILE];
+            new Random(1).nextBytes(contents);
+            repo.run("init");
+            repo.write("big.bin", contents);
+            repo.run("add", "big.bin");
+            repo.run("gc", "--now");
+            repo.run("commit", "big");
+            repo.file("big.bin").delete();
+
+            assertEquals("", repo.run("checkout", "--", "big.bin"));
+            assertArrayEquals(contents, Files.readAllBytes(
+                    repo.file("big.bin").toPath()));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Tests of the stat cache of the working tree.
+ * @author Jonny W. */
+public class IndexTest {
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gitlet-index").toFile();
+        indexFile = new File(dir, "index");
+        work = new File(dir, "f");
+    }
+
+    @After
+    public void tearDown() {
+        work.delete();
+        indexFile.delete();
+        dir.delete();
+    }
+
+    /** A file changed within the second it was indexed, keeping its
+     * size and modification time, is hashed again even after the index
+     * is written once more, later, by a command that did not look at
+     * it. */
+    @Test
+    public void racyEntryStaysUntrusted() throws InterruptedException {
+        sleepToNextSecond();
+        Utils.writeContents(work, "aaaa");
+        long mtime = work.lastModified();
+        Index index = new Index(indexFile);
+        assertEquals(BlobStore.hash("aaaa".getBytes()),
+                     index.hash(work, "f"));
+        index.save();
+
+        Utils.writeContents(work, "bbbb");
+        work.setLastModified(mtime);
+
+        sleepToNextSecond();
+        new Index(indexFile).save();
+
+        assertEquals(BlobStore.hash("bbbb".getBytes()),
+                     new Index(indexFile).hash(work, "f"));
+    }
+
+    /** Sleep until just after the start of the next second. */
+    private static void sleepToNextSecond() throws InterruptedException {
+        Thread.sleep(1050 - System.currentTimeMillis() % 1000);
+    }
+
+    /** Scratch directory. */
+    private File dir;
+
+    /** The index file. */
+    private File indexFile;
+
+    /** The file indexed. */
+    private File work;
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Tests of naming commits by prefixes of their ids.
+ * @author Jonny W. */
+public class MergeBaseTest {
+
+    /** A prefix shared by two commit ids is rejected rather than
+     * resolved to either one. */
+    @Test
+    public void ambiguousPrefix() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            String shared = sharedPrefix(commits(repo));
+            assertEquals("Ambiguous commit id.\n",
+                         repo.run("merge-base", shared, "master"));
+        }
+    }
+
+    /** checkout of a file from a commit named by a prefix takes the one
+     * commit the prefix names, and rejects a prefix naming several and
+     * a piece from the middle of an id. */
+    @Test
+    public void checkoutFileByPrefix() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            List<String> ids = commits(repo);
+            String first = ids.get(ids.size() - 2);
+            repo.write("f0", "changed\n");
+
+            assertEquals("Ambiguous commit id.\n",
+                         repo.run("checkout", sharedPrefix(ids), "--", "f0"));
+            assertEquals("No commit with that id exists.\n",
+                         repo.run("checkout", first.substring(10, 20), "--",
+                                  "f0"));
+            assertEquals("changed\n", repo.read("f0"));
+            assertEquals("", repo.run("checkout", first.substring(0, 12),
+                                      "--", "f0"));
+            assertEquals("0\n", repo.read("f0"));
+        }
+    }
+
+    /** Make sixteen commits in REPO, the Ith adding the file fI, and
+     * return the ids of every commit, newest first, down to the
+     * initial one. */
+    private static List<String> commits(TestRepo repo) throws IOException {
+        repo.run("init");
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 16; i += 1) {
+            repo.write("f" + i, i + "\n");
+            script.append("add f").append(i).append('\n');
+            script.append("commit c").append(i).append('\n');
+        }
+        assertEquals("", repo.runWithInput(script.toString(), "batch"));
+        ArrayList<String> result = new ArrayList<String>();
+        Matcher ids = Pattern.compile("commit ([0-9a-f]{40})")
+            .matcher(repo.run("log"));
+        while (ids.find()) {
+            result.add(ids.group(1));
+        }
+        return result;
+    }
+
+    /** Return a one-digit prefix shared by two of IDS. */
+    private static String sharedPrefix(List<String> ids) {
+        HashSet<Character> seen = new HashSet<Character>();
+        for (String id : ids) {
+            if (!seen.add(id.charAt(0))) {
+                return id.substring(0, 1);
+            }
+        }
+        throw new AssertionError("no shared prefix");
+    }
+}
@@ -0,0 +1,93 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of the map from object ids to longs.
+ * @author Jonny W. */
+public class ObjectIdMapTest {
+
+    /** A map sized for few entries grows to hold many, keeping every
+     * value, and replacing a value does not add an entry. */
+    @Test
+    public void grows() {
+        ObjectIdMap map = new ObjectIdMap(1);
+        List<ObjectId> ids = ids(COUNT);
+        for (int i = 0; i < COUNT; i += 1) {
+            map.put(ids.get(i), i);
+            assertEquals(i + 1, map.size());
+        }
+        for (int i = 0; i < COUNT; i += 1) {
+            assertEquals(i, map.get(ids.get(i)));
+        }
+        map.put(ids.get(0), 1L << 40);
+        assertEquals(COUNT, map.size());
+        assertEquals(1L << 40, map.get(ids.get(0)));
+        assertEquals(new HashSet<ObjectId>(ids),
+                     new HashSet<ObjectId>(map.keys()));
+        assertEquals(ObjectIdMap.MISSING,
+                     map.get(ObjectId.fromHex(Utils.sha1("absent"))));
+    }
+
+    /** Ids with the same first word, which land in the same slot, and
+     * ids differing only in their last word are all kept apart, before
+     * and after the map grows. */
+    @Test
+    public void probeCollisions() {
+        ObjectIdMap map = new ObjectIdMap();
+        ArrayList<ObjectId> ids = new ArrayList<ObjectId>();
+        for (int i = 0; i < COUNT; i += 1) {
+            ids.add(ObjectId.fromHex(String.format("%08x%032x", 0x1234, i)));
+        }
+        for (int i = 0; i < COUNT; i += 1) {
+            map.put(ids.get(i), i);
+            for (int j = 0; j <= i; j += 1) {
+                assertEquals(j, map.get(ids.get(j)));
+            }
+        }
+        assertEquals(COUNT, map.size());
+        assertFalse(map.containsKey(ObjectId.fromHex(
+                String.format("%08x%032x", 0x1234, COUNT))));
+        assertFalse(map.containsKey(ObjectId.fromHex(
+                String.format("%08x%032x", 0x1235, 0))));
+    }
+
+    /** Ids read from a buffer are the same keys as ObjectIds. */
+    @Test
+    public void bufferKeys() {
+        ObjectIdMap map = new ObjectIdMap();
+        List<ObjectId> ids = ids(COUNT);
+        ByteBuffer buf = ByteBuffer.allocate(COUNT * ObjectId.BYTES);
+        for (ObjectId id : ids) {
+            id.copyRawTo(buf);
+        }
+        for (int i = 0; i < COUNT; i += 1) {
+            map.put(buf, i * ObjectId.BYTES, i);
+        }
+        for (int i = 0; i < COUNT; i += 1) {
+            assertEquals(i, map.get(ids.get(i)));
+            assertEquals(i, map.get(buf, i * ObjectId.BYTES));
+            assertTrue(map.containsKey(ids.get(i)));
+        }
+    }
+
+    /** Return N distinct ids. */
+    private static List<ObjectId> ids(int n) {
+        ArrayList<ObjectId> result = new ArrayList<ObjectId>();
+        for (int i = 0; i < n; i += 1) {
+            result.add(ObjectId.fromHex(Utils.sha1("id " + i)));
+        }
+        return result;
+    }
+
+    /** Number of ids put in each map. */
+    private static final int COUNT = 200;
+}
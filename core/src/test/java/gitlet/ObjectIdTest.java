@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of object ids and their names.
+ * @author Jonny W. */
+public class ObjectIdTest {
+
+    /** An id converts to and from its name and its bytes unchanged. */
+    @Test
+    public void roundTrips() {
+        String name = Utils.sha1("round trip");
+        ObjectId id = ObjectId.fromHex(name);
+        assertEquals(name, id.name());
+        assertEquals(name, id.toString());
+        assertEquals(name, ObjectId.hex(id.toRaw()));
+
+        ByteBuffer buf = ByteBuffer.allocate(3 + ObjectId.BYTES);
+        buf.position(3);
+        id.copyRawTo(buf);
+        assertEquals(id, ObjectId.fromRaw(buf, 3));
+        assertEquals(name, ObjectId.hex(buf, 3));
+        assertArrayEquals(id.toRaw(), ObjectId.fromRaw(buf.array(), 3)
+                          .toRaw());
+    }
+
+    /** Names differing only in the case of their digits name the same
+     * id, which is named in lower case. */
+    @Test
+    public void equalAcrossHexCase() {
+        String name = Utils.sha1("case");
+        ObjectId lower = ObjectId.parse(name);
+        ObjectId upper = ObjectId.parse(name.toUpperCase());
+        assertEquals(lower, upper);
+        assertEquals(lower.hashCode(), upper.hashCode());
+        assertEquals(0, lower.compareTo(upper));
+        assertEquals(name, upper.name());
+
+        ObjectIdMap map = new ObjectIdMap();
+        map.put(upper, 7);
+        assertEquals(7, map.get(lower));
+    }
+
+    /** Strings of the wrong length or with characters that are not hex
+     * digits name no id. */
+    @Test
+    public void rejectsBadNames() {
+        String name = Utils.sha1("bad");
+        assertNull(ObjectId.parse(null));
+        assertNull(ObjectId.parse(name.substring(1)));
+        assertNull(ObjectId.parse(name + "0"));
+        assertNull(ObjectId.parse("g" + name.substring(1)));
+        assertNull(ObjectId.parse("é" + name.substring(1)));
+        try {
+            ObjectId.fromHex("not an id");
+            throw new AssertionError("bad name was parsed");
+        } catch (IllegalArgumentException excp) {
+            assertTrue(excp.getMessage().contains("not an id"));
+        }
+    }
+
+    /** Ids compare as unsigned bytes, most significant first. */
+    @Test
+    public void ordersAsUnsignedBytes() {
+        ObjectId low = ObjectId.fromHex("7f" + "0".repeat(38));
+        ObjectId high = ObjectId.fromHex("80" + "0".repeat(38));
+        ObjectId last = ObjectId.fromHex("80" + "0".repeat(37) + "1");
+        assertTrue(low.compareTo(high) < 0);
+        assertTrue(high.compareTo(last) < 0);
+        assertTrue(last.compareTo(low) > 0);
+        assertNotEquals(high, last);
+    }
+}
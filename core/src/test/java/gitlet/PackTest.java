@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests of packs and their deltas.
+ * @author Jonny W. */
+public class PackTest {
+
+    /** Applying the delta between two texts to the first gives back the
+     * second, whether lines were changed, added, removed or left without
+     * a final newline. */
+    @Test
+    public void deltaRoundTrip() {
+        byte[] base = text(200, -1, "");
+        for (byte[] target : List.of(text(200, 17, ""), text(250, 3, ""),
+                                     text(120, 90, ""),
+                                     text(200, 17, "no newline"),
+                                     new byte[0])) {
+            byte[] delta = Pack.delta(base, target);
+            assertNotNull(delta);
+            assertArrayEquals(target, Pack.applyDelta(base, delta));
+        }
+        byte[] binary = new byte[5000];
+        new Random(1).nextBytes(binary);
+        byte[] changed = binary.clone();
+        changed[2500] ^= 1;
+        assertArrayEquals(changed,
+                          Pack.applyDelta(binary, Pack.delta(binary, changed)));
+    }
+
+    /** Versions of a file written to a pack, most of them as deltas
+     * against each other, read back unchanged. */
+    @Test
+    public void packRoundTrip() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            HashMap<String, byte[]> blobs = new HashMap<String, byte[]>();
+            for (int i = 0; i < 8; i += 1) {
+                byte[] contents = text(300 + i * 10, i * 7, "");
+                blobs.put(BlobStore.hash(contents), contents);
+            }
+            Pack pack = Pack.write(repo.file("."), List.of(blobs.keySet()),
+                                   blobs::get);
+            long total = 0;
+            for (var each : blobs.entrySet()) {
+                assertArrayEquals(each.getValue(), pack.get(each.getKey()));
+                total += each.getValue().length;
+            }
+            assertTrue(pack.getFile().length() < total / 4);
+            assertEquals(blobs.size(), new Pack(pack.getFile()).ids().size());
+        }
+    }
+
+    /** A pack entry whose compressed data is cut short is reported as
+     * corrupt instead of being inflated forever. */
+    @Test(timeout = 10_000)
+    public void truncatedEntryIsCorrupt() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            byte[] contents = new byte[20_000];
+            new Random(2).nextBytes(contents);
+            String id = BlobStore.hash(contents);
+            Pack pack = Pack.write(repo.file("."), List.of(List.of(id)),
+                                   i -> contents);
+            try (RandomAccessFile f =
+                     new RandomAccessFile(pack.getFile(), "rw")) {
+                f.seek(PACKED_LENGTH);
+                int packed = f.readInt();
+                f.seek(PACKED_LENGTH);
+                f.writeInt(packed / 2);
+                f.setLength(PACKED_LENGTH + 4 + packed / 2);
+            }
+            try {
+                pack.get(id);
+                fail("truncated entry was read");
+            } catch (GitletException excp) {
+                assertEquals("Corrupt pack entry.", excp.getMessage());
+            }
+        }
+    }
+
+    /** Return LINES numbered lines of text, with line CHANGED (if not
+     * negative) altered and, if TAIL is not empty, a last line TAIL
+     * without a newline. */
+    private static byte[] text(int lines, int changed, String tail) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            result.append(i == changed ? "changed " : "line ").append(i)
+                .append('\n');
+        }
+        result.append(tail);
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Position of the compressed length in the first entry of a pack,
+     * after its type and its uncompressed length. */
+    private static final int PACKED_LENGTH = 5;
+}
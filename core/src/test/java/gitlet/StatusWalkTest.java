@@ -0,0 +1,80 @@
+package gitlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Tests of the walk finding the changed files of a working tree.
+ * @author Jonny W. */
+public class StatusWalkTest {
+
+    /** Untracked, modified and missing files are each reported once,
+     * and the repository folder is not walked. */
+    @Test
+    public void reportsChanges() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            repo.write("same.txt", "same\n");
+            repo.write("dir/changed.txt", "new\n");
+            repo.write("dir/new.txt", "untracked\n");
+            repo.write(".gitlet/ignored", "inside the repository\n");
+            Map<String, String> tracked = Map.of(
+                    "same.txt", id("same\n"),
+                    "dir/changed.txt", id("old\n"),
+                    "gone.txt", id("gone\n"));
+
+            assertEquals(List.of("untracked dir/new.txt " + id("untracked\n"),
+                                 "modified dir/changed.txt " + id("new\n"),
+                                 "modified gone.txt null"),
+                         walk(repo, tracked));
+        }
+    }
+
+    /** A tracked file replaced by a directory is reported as missing,
+     * and the files in the directory as untracked, instead of the
+     * directory being hashed as a file. */
+    @Test
+    public void fileReplacedByDirectory() throws IOException {
+        try (TestRepo repo = new TestRepo()) {
+            repo.write("a/b", "below\n");
+
+            assertEquals(List.of("untracked a/b " + id("below\n"),
+                                 "modified a null"),
+                         walk(repo, Map.of("a", id("a file\n"))));
+        }
+    }
+
+    /** Return what a walk of REPO with the tracked files TRACKED
+     * reports, one line per file, modified files in name order. */
+    private static List<String> walk(TestRepo repo,
+                                     Map<String, String> tracked) {
+        ArrayList<String> untracked = new ArrayList<String>();
+        ArrayList<String> modified = new ArrayList<String>();
+        Index index = new Index(repo.file(".gitlet/index"));
+        StatusWalk.walk(repo.file("."), tracked, index,
+                new StatusWalk.Listener() {
+                    @Override
+                    public void untracked(String name, String id) {
+                        untracked.add("untracked " + name + " " + id);
+                    }
+
+                    @Override
+                    public void modified(String name, String id) {
+                        modified.add("modified " + name + " " + id);
+                    }
+                });
+        untracked.sort(null);
+        modified.sort(null);
+        untracked.addAll(modified);
+        return untracked;
+    }
+
+    /** Return the blob id of the text CONTENTS. */
+    private static String id(String contents) {
+        return BlobStore.hash(contents.getBytes());
+    }
+}
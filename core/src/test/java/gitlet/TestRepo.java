@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/** A scratch working directory in which gitlet commands are run, each
+ * in a JVM of its own as from the command line, since Main works on
+ * the current directory.
+ * @author Jonny W. */
+class TestRepo implements AutoCloseable {
+
+    /** A new empty working directory. */
+    TestRepo() throws IOException {
+        dir = Files.createTempDirectory("gitlet-test").toFile();
+    }
+
+    /** Run gitlet with ARGS, with INPUT (or nothing, if null) on its
+     * standard input, and return what it printed. */
+    String runWithInput(String input, String... args) throws IOException {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin/java")
+                    .getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("gitlet.Main");
+        command.addAll(List.of(args));
+        Process p = new ProcessBuilder(command).directory(dir)
+            .redirectErrorStream(true).start();
+        p.getOutputStream().write(input == null ? new byte[0]
+                                  : input.getBytes(StandardCharsets.UTF_8));
+        p.getOutputStream().close();
+        String output = new String(p.getInputStream().readAllBytes(),
+                                   StandardCharsets.UTF_8);
+        try {
+            p.waitFor();
+        } catch (InterruptedException excp) {
+            throw new IOException(excp);
+        }
+        return output;
+    }
+
+    /** Run gitlet with ARGS and return what it printed. */
+    String run(String... args) throws IOException {
+        return runWithInput(null, args);
+    }
+
+    /** Return the file NAME of the working directory. */
+    File file(String name) {
+        return new File(dir, name);
+    }
+
+    /** Write CONTENTS to the file NAME, making its directories. */
+    void write(String name, String contents) {
+        write(name, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Write CONTENTS to the file NAME, making its directories. */
+    void write(String name, byte[] contents) {
+        File f = file(name);
+        f.getParentFile().mkdirs();
+        Utils.writeContents(f, contents);
+    }
+
+    /** Return the contents of the file NAME. */
+    String read(String name) {
+        return Utils.readContentsAsString(file(name));
+    }
+
+    /** Delete the working directory. */
+    @Override
+    public void close() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder())
+                .forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /** The working directory. */
+    private final File dir;
+}